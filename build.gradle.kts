@@ -1,5 +1,6 @@
 plugins {
     application
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 java {
@@ -16,7 +17,7 @@ dependencies {
     implementation("org.apache.logging.log4j:log4j-core:2.24.2")
     implementation("org.apache.logging.log4j:log4j-slf4j-impl:2.24.2")
 
-    runtimeOnly("org.postgresql:postgresql:42.7.4")
+    implementation("org.postgresql:postgresql:42.7.4")
     implementation("org.flywaydb:flyway-core:11.0.1")
     runtimeOnly("org.flywaydb:flyway-database-postgresql:11.0.1")
     implementation("com.zaxxer:HikariCP:6.2.1")
@@ -33,3 +34,18 @@ application {
 tasks.test {
     useJUnitPlatform()
 }
+
+// ./gradlew jmh -Pjmh.includes=PollBenchmark -Pjmh.jdbcUrl=jdbc:postgresql://localhost:5432/postgres
+jmh {
+    jmhVersion.set("1.37")
+    (findProperty("jmh.includes") as String?)?.let { includes.add(it) }
+    (findProperty("jmh.jdbcUrl") as String?)?.let { jvmArgsAppend.add("-Dpgqueue.jdbcUrl=$it") }
+    resultFormat.set("JSON")
+}
+
+// ./gradlew compareStressResults -PstressResults="--baseline base.jsonl build/stress-results/run.jsonl"
+tasks.register<JavaExec>("compareStressResults") {
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ai.toloka.engineering.pg_queue_playground.misc.StressTestComparison")
+    args((findProperty("stressResults") as String? ?: "").split(" ").filter { it.isNotBlank() })
+}
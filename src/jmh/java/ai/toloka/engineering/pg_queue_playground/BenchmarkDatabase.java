@@ -0,0 +1,80 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ai.toloka.engineering.pg_queue_playground.misc.TransactionManager;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+
+/**
+ * The stub by default, or a real PostgreSQL when the pgqueue.jdbcUrl system property is set (see the jmh block in
+ * build.gradle.kts). Comparing the same benchmark on both tells how much of a poll is spent in the client.
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+
+    static final String PAYLOAD = "x".repeat(100);
+
+    private static final int REFILL_EVENT_COUNT = 200_000;
+
+    private final HikariDataSource pgDataSource; // null for the stub
+    private final TransactionManager txManager;
+
+    private BenchmarkDatabase(HikariDataSource pgDataSource, TransactionManager txManager) {
+        this.pgDataSource = pgDataSource;
+        this.txManager = txManager;
+    }
+
+    /**
+     * The stub returns rowCount rows for every query, PostgreSQL returns whatever is in the table.
+     */
+    static BenchmarkDatabase open(int rowCount, int statementCacheSize) {
+        String jdbcUrl = System.getProperty("pgqueue.jdbcUrl");
+        if (jdbcUrl == null || jdbcUrl.isEmpty()) {
+            var stub = new StubDataSource(rowCount, PAYLOAD);
+            return new BenchmarkDatabase(null, new TransactionManager(stub.getDataSource(), statementCacheSize));
+        }
+
+        var dsConfig = new HikariConfig();
+        dsConfig.setJdbcUrl(jdbcUrl);
+        dsConfig.setUsername(System.getProperty("pgqueue.username", "postgres"));
+        dsConfig.setPassword(System.getProperty("pgqueue.password", "postgres"));
+        dsConfig.setMaximumPoolSize(4);
+        var dataSource = new HikariDataSource(dsConfig);
+        Flyway.configure()
+                .dataSource(dataSource)
+                .load()
+                .migrate();
+        var database = new BenchmarkDatabase(dataSource, new TransactionManager(dataSource, statementCacheSize));
+        // every table a benchmarked buffer polls or refills
+        database.txManager.executeWithoutTx("TRUNCATE queue_buffer, queue_buffer_sharded");
+        return database;
+    }
+
+    TransactionManager getTxManager() {
+        return txManager;
+    }
+
+    /**
+     * Tops up the table of the buffer before an iteration, so the polls don't run into an empty queue. No-op for the
+     * stub.
+     */
+    void refill(PgQueueBuffer buffer) {
+        if (pgDataSource == null) {
+            return;
+        }
+        List<Event> events = new ArrayList<>(REFILL_EVENT_COUNT);
+        for (int i = 0; i < REFILL_EVENT_COUNT; i++) {
+            events.add(new Event(PAYLOAD));
+        }
+        txManager.begin();
+        buffer.copyAll(events);
+        txManager.commit();
+    }
+
+    @Override
+    public void close() {
+        TransactionManager.closeSafely(pgDataSource);
+    }
+}
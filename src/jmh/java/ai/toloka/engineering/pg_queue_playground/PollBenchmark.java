@@ -0,0 +1,80 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A whole poll: SQL building, parameter binding, ResultSet to Event materialization, the ack and the transaction
+ * bookkeeping, but no network round trips when run against the stub.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PollBenchmark {
+
+    @Param({"4", "6", "8"})
+    private int buffer;
+
+    @Param({"10", "100", "1000"})
+    private int batchSize;
+
+    @Param({"0", "64"})
+    private int statementCacheSize;
+
+    @Param({"false", "true"})
+    private boolean columnar;
+
+    private BenchmarkDatabase database;
+    private PgQueueBuffer pgQueueBuffer;
+    private final EventBatch eventBatch = new EventBatch();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.open(batchSize, statementCacheSize);
+        pgQueueBuffer = switch (buffer) {
+            case 4 -> new PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff(10);
+            case 6 -> new PgQueueBuffer_6_DeleteReturningSkipLocked();
+            case 8 -> new PgQueueBuffer_8_ShardedSelectForUpdateSkipLockedWhereIdSyncCommitOff(10);
+            default -> throw new IllegalArgumentException("Unknown buffer " + buffer);
+        };
+        pgQueueBuffer.init(database.getTxManager());
+        pgQueueBuffer.registerReader("benchmark");
+    }
+
+    @Setup(Level.Iteration)
+    public void refill() {
+        database.refill(pgQueueBuffer);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pgQueueBuffer.unregisterReader("benchmark");
+        database.close();
+    }
+
+    @Benchmark
+    public void poll(Blackhole blackhole) {
+        if (columnar) {
+            pgQueueBuffer.poll(batchSize, eventBatch, blackhole::consume);
+        } else {
+            pgQueueBuffer.poll(batchSize, blackhole::consume);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.util.concurrent.TimeUnit;
+
+import ai.toloka.engineering.pg_queue_playground.misc.AbstractReaderWriter;
+import ai.toloka.engineering.pg_queue_playground.misc.ApplicationName;
+import ai.toloka.engineering.pg_queue_playground.misc.LatencyHistogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What every poll and offer pays for the report. The recorder is shared, as it is between a reader and the reporter,
+ * and the contended variants show how it scales when the stats of several readers are recorded at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatRecordingBenchmark {
+
+    private final StatRecorder statRecorder = new StatRecorder();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Benchmark
+    public void logStat() {
+        statRecorder.record(1_234_567, 10);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void logStatContended() {
+        statRecorder.record(1_234_567, 10);
+    }
+
+    @Benchmark
+    public void histogramRecord() {
+        histogram.record(1_234_567);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void histogramRecordContended() {
+        histogram.record(1_234_567);
+    }
+
+    private static final class StatRecorder extends AbstractReaderWriter {
+
+        StatRecorder() {
+            super("benchmark", ApplicationName.READER, null, null);
+        }
+
+        void record(long deltaNanos, int count) {
+            logStat(deltaNanos, count);
+        }
+
+        @Override
+        protected void runInner() {
+            // never runs as a thread, only logStat is measured
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+
+/**
+ * JDBC driver which never leaves the JVM: every query returns rowCount rows of (id, payload, created_at) with
+ * consecutive ids, and every other call does nothing. What's left of a poll against it is the client-side overhead
+ * plus a few dynamic proxy calls, which are the same for all the buffers.
+ */
+public final class StubDataSource {
+
+    private static final Timestamp CREATED_AT = Timestamp.from(Instant.parse("2024-01-01T00:00:00Z"));
+
+    private final int rowCount;
+    private final String payload;
+    private final byte[] payloadBytes;
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    private final DataSource dataSource;
+    private final Connection connection;
+
+    public StubDataSource(int rowCount, String payload) {
+        this.rowCount = rowCount;
+        this.payload = payload;
+        this.payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        // PGConnection binds primitive arrays
+        this.connection = proxy(Connection.class, this::invokeOnConnection, PGConnection.class);
+        this.dataSource = proxy(DataSource.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getConnection" -> connection;
+            case "unwrap" -> proxy;
+            default -> defaultValue(method.getReturnType());
+        });
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    private Object invokeOnConnection(Object proxy, Method method, Object[] args) {
+        return switch (method.getName()) {
+            case "prepareStatement" -> proxy(PreparedStatement.class, this::invokeOnStatement);
+            case "createStatement" -> proxy(Statement.class, this::invokeOnStatement);
+            case "createArrayOf" -> proxy(Array.class, (p, m, a) -> defaultValue(m.getReturnType()));
+            case "unwrap" -> proxy;
+            default -> defaultValue(method.getReturnType());
+        };
+    }
+
+    private Object invokeOnStatement(Object proxy, Method method, Object[] args) {
+        return switch (method.getName()) {
+            case "executeQuery" -> proxy(ResultSet.class, new Rows());
+            case "getConnection" -> connection;
+            default -> defaultValue(method.getReturnType());
+        };
+    }
+
+    private final class Rows implements InvocationHandler {
+
+        private int row;
+        private long id;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            return switch (method.getName()) {
+                case "next" -> {
+                    if (row >= rowCount) {
+                        yield false;
+                    }
+                    row += 1;
+                    id = nextId.getAndIncrement();
+                    yield true;
+                }
+                case "getLong" -> (Integer) args[0] == 1 ? id : 0L;
+                case "getString" -> payload;
+                case "getBytes" -> payloadBytes;
+                case "getTimestamp" -> CREATED_AT;
+                default -> defaultValue(method.getReturnType());
+            };
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler, Class<?>... extraTypes) {
+        InvocationHandler withIdentity = (proxy, method, args) -> switch (method.getName()) {
+            // connections are map keys in the statement cache
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "toString" -> "Stub" + type.getSimpleName();
+            default -> handler.invoke(proxy, method, args);
+        };
+        Class<?>[] types = new Class<?>[extraTypes.length + 1];
+        types[0] = type;
+        System.arraycopy(extraTypes, 0, types, 1, extraTypes.length);
+        return (T) Proxy.newProxyInstance(StubDataSource.class.getClassLoader(), types, withIdentity);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == double.class) {
+            return 0.0;
+        } else if (type == float.class) {
+            return 0.0f;
+        } else if (type == char.class) {
+            return '\0';
+        }
+        return null;
+    }
+}
@@ -0,0 +1,67 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.util.concurrent.TimeUnit;
+
+import ai.toloka.engineering.pg_queue_playground.misc.TransactionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Connection checkout, ThreadLocal bookkeeping and statement preparation around a transaction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionManagerBenchmark {
+
+    @Param({"0", "64"})
+    private int statementCacheSize;
+
+    private BenchmarkDatabase database;
+    private TransactionManager txManager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.open(1, statementCacheSize);
+        txManager = database.getTxManager();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public void beginCommit() {
+        txManager.begin();
+        txManager.commit();
+    }
+
+    @Benchmark
+    public void beginExecuteCommit(Blackhole blackhole) {
+        txManager.begin();
+        txManager.execute("select id from queue_buffer where id>? limit 1",
+                ps -> ps.setLong(1, 0),
+                rs -> {
+                    while (rs.next()) {
+                        blackhole.consume(rs.getLong(1));
+                    }
+                });
+        txManager.commit();
+    }
+}
@@ -1,20 +1,34 @@
 package ai.toloka.engineering.pg_queue_playground;
 
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.function.Consumer;
 
 import ai.toloka.engineering.pg_queue_playground.misc.TransactionManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
 
 public abstract class AbstractPgQueueBuffer implements PgQueueBuffer {
 
     protected static final Logger logger = LogManager.getLogger();
 
+    private static final String CREATED_AT_MICROS_COLUMN = "(extract(epoch from q.created_at) * 1000000)::bigint";
+
     protected final boolean syncCommitEnabled;
 
     protected volatile TransactionManager txManager;
 
+    protected volatile boolean notifyEnabled;
+
+    private final ThreadLocal<IdCursor.Claim> cursorClaim = new ThreadLocal<>();
+
+    private final ThreadLocal<EventBatch> listPollBatch = ThreadLocal.withInitial(EventBatch::new);
+
     protected AbstractPgQueueBuffer(boolean syncCommitEnabled) {
         this.syncCommitEnabled = syncCommitEnabled;
     }
@@ -24,6 +38,19 @@ public abstract class AbstractPgQueueBuffer implements PgQueueBuffer {
         this.txManager = txManager;
     }
 
+    @Override
+    public void setNotifyEnabled(boolean notifyEnabled) {
+        this.notifyEnabled = notifyEnabled;
+    }
+
+    @Override
+    public void registerReader(String readerName) {
+    }
+
+    @Override
+    public void unregisterReader(String readerName) {
+    }
+
     @Override
     public boolean isSyncCommitEnabled() {
         return syncCommitEnabled;
@@ -32,23 +59,182 @@ public abstract class AbstractPgQueueBuffer implements PgQueueBuffer {
     @Override
     public void offer(Event event) {
         txManager.execute("insert into queue_buffer (payload) values (?)",
-                (TransactionManager.PreparedStatementConsumer) ps -> ps.setString(1, event.payload));
+                (TransactionManager.PreparedStatementConsumer) ps -> ps.setBytes(1, event.payload));
+        notifyIfEnabled();
+    }
+
+    @Override
+    public void offerAll(Collection<Event> events) {
+        offerAll("queue_buffer", events);
+    }
+
+    /**
+     * Inserts all events with a single statement. The payloads are bound as one bytea array, so the statement
+     * shape doesn't depend on the batch size.
+     */
+    protected void offerAll(String table, Collection<Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        byte[][] payloads = events.stream().map(e -> e.payload).toArray(byte[][]::new);
+        String sql = "insert into " + table + " (payload) select unnest(?::bytea[])";
+        txManager.execute(sql, (TransactionManager.PreparedStatementConsumer) ps ->
+                ps.setArray(1, ps.getConnection().createArrayOf("bytea", payloads)));
+        notifyIfEnabled();
+    }
+
+    @Override
+    public void copyAll(Iterable<Event> events) {
+        copyAll("queue_buffer", events);
+    }
+
+    protected void copyAll(String table, Iterable<Event> events) {
+        String sql = "copy " + table + " (payload) from stdin (format binary)";
+        txManager.copyIn(sql, new EventCopyInputStream(events.iterator()));
+        notifyIfEnabled();
+    }
+
+    /**
+     * Notifications with the same payload are folded into one per transaction by PostgreSQL, so this is cheap to
+     * call several times from one producer transaction.
+     */
+    protected void notifyIfEnabled() {
+        if (notifyEnabled) {
+            txManager.execute("notify " + NOTIFY_CHANNEL);
+        }
     }
 
     @Override
     public void poll(int count, Consumer<List<Event>> consumer) {
+        inPollTransaction(() -> pollInner(count, consumer));
+    }
+
+    @Override
+    public void poll(int count, EventBatch batch, Consumer<EventBatch> consumer) {
+        inPollTransaction(() -> pollInner(count, batch, consumer));
+    }
+
+    private void inPollTransaction(Runnable pollInner) {
         try {
             txManager.begin();
-            pollInner(count, consumer);
+            pollInner.run();
             txManager.commit();
+            completeCursorClaim(true);
+        } catch (CancellationException e) {
+            // the consumer gave the batch back, e.g. its subscription is cancelled, see PgQueueBufferPublisher
+            txManager.rollbackSafely();
+            completeCursorClaim(false);
         } catch (RuntimeException e) {
             logger.error("Unexpected exception while polling", e);
             txManager.rollbackSafely();
+            completeCursorClaim(false);
+        }
+    }
+
+    private void completeCursorClaim(boolean committed) {
+        IdCursor.Claim claim = cursorClaim.get();
+        if (claim == null) {
+            return;
         }
+        cursorClaim.remove();
+        if (committed) {
+            claim.commit();
+        } else {
+            claim.rollback();
+        }
+    }
+
+    protected List<Event> selectByCursor(String table, IdCursor cursor, int count) {
+        return selectByCursor(table, SqlCondition.TRUE, cursor, count);
+    }
+
+    protected List<Event> selectByCursor(String table, SqlCondition condition, IdCursor cursor, int count) {
+        EventBatch batch = listPollBatch.get();
+        selectByCursor(table, condition, cursor, count, batch);
+        return batch.toEvents();
+    }
+
+    /**
+     * Claims up to count events matching the condition into the batch either from the head after the cursor or, when
+     * a rescan is due, from the cursor gaps. The claim is completed in the cursor after the poll transaction ends.
+     */
+    protected void selectByCursor(String table, SqlCondition condition, IdCursor cursor, int count, EventBatch batch) {
+        batch.clear();
+        if (cursor.isGapRescanDue()) {
+            IdCursor.GapRanges gapRanges = cursor.getGapRanges();
+            long[] snapshotXmin = new long[1];
+            txManager.execute("select pg_snapshot_xmin(pg_current_snapshot())::text::bigint",
+                    (TransactionManager.ResultSetConsumer) rs -> {
+                        rs.next();
+                        snapshotXmin[0] = rs.getLong(1);
+                    });
+            String sql = "select q.id, q.payload, " + CREATED_AT_MICROS_COLUMN + " " +
+                    "from " + table + " q " +
+                    "join unnest(?::bigint[], ?::bigint[]) as g(from_id, to_id) " +
+                    "on q.id between g.from_id and g.to_id " +
+                    "where " + condition.sql() + " " +
+                    "order by q.id " +
+                    "for update of q skip locked " +
+                    "limit ?";
+            txManager.execute(sql, ps -> {
+                ps.setArray(1, bigintArray(ps, gapRanges.froms()));
+                ps.setArray(2, bigintArray(ps, gapRanges.tos()));
+                ps.setInt(condition.bind(ps, 3), count);
+            }, rs -> {
+                while (rs.next()) {
+                    batch.add(rs.getLong(1), rs.getBytes(2), rs.getLong(3));
+                }
+            });
+            cursorClaim.set(cursor.claimGaps(batch.getIds(), batch.size(), gapRanges, batch.size() < count,
+                    snapshotXmin[0]));
+        } else {
+            long[] snapshotXmax = new long[1];
+            String sql = "select id, payload, " + CREATED_AT_MICROS_COLUMN + ", " +
+                    "pg_snapshot_xmax(pg_current_snapshot())::text::bigint " +
+                    "from " + table + " q " +
+                    "where " + condition.sql() + " and id>? " +
+                    "order by id " +
+                    "for update skip locked " +
+                    "limit ?";
+            txManager.execute(sql, ps -> {
+                int index = condition.bind(ps, 1);
+                ps.setLong(index, cursor.getHigh());
+                ps.setInt(index + 1, count);
+            }, rs -> {
+                while (rs.next()) {
+                    // with the binary transfer, the driver returns the bytes as received, see TransactionManager
+                    batch.add(rs.getLong(1), rs.getBytes(2), rs.getLong(3));
+                    snapshotXmax[0] = rs.getLong(4);
+                }
+            });
+            cursorClaim.set(cursor.claimHead(batch.getIds(), batch.size(), snapshotXmax[0]));
+        }
+    }
+
+    /**
+     * Binds the values as a primitive array, without boxing every id.
+     */
+    static Array bigintArray(PreparedStatement ps, long[] values) throws SQLException {
+        return ps.getConnection().unwrap(PGConnection.class).createArrayOf("bigint", values);
     }
 
     protected abstract void pollInner(int count, Consumer<List<Event>> consumer);
 
+    /**
+     * List-based poll over the columnar pollInner, for the buffers which implement the latter. The batch is kept per
+     * reader thread, so only the events handed to the consumer are allocated.
+     */
+    protected void pollInnerAsList(int count, Consumer<List<Event>> consumer) {
+        pollInner(count, listPollBatch.get(), batch -> consumer.accept(batch.toEvents()));
+    }
+
+    /**
+     * Adapter over the list-based poll, buffers which claim events in bulk override it to fill the batch directly.
+     */
+    protected void pollInner(int count, EventBatch batch, Consumer<EventBatch> consumer) {
+        pollInner(count, EventBatch.refilling(batch, consumer));
+    }
+
     @Override
     public long size() {
         long[] result = new long[1];
@@ -59,6 +245,27 @@ public abstract class AbstractPgQueueBuffer implements PgQueueBuffer {
         return result[0];
     }
 
+    @Override
+    public long estimateSize() {
+        return estimateSize("queue_buffer");
+    }
+
+    /**
+     * Sums n_live_tup of the tables and of their partitions. TRUNCATE resets it as well.
+     */
+    protected long estimateSize(String... tables) {
+        long[] result = new long[1];
+        String sql = "select coalesce(sum(s.n_live_tup), 0) " +
+                "from unnest('{" + String.join(",", tables) + "}'::regclass[]) as t(rel) " +
+                "cross join lateral pg_partition_tree(t.rel) as p " +
+                "join pg_stat_user_tables s on s.relid = p.relid";
+        txManager.executeWithoutTx(sql, rs -> {
+            rs.next();
+            result[0] = rs.getLong(1);
+        });
+        return result[0];
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
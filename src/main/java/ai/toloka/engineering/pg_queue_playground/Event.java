@@ -1,17 +1,37 @@
 package ai.toloka.engineering.pg_queue_playground;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
 public class Event {
 
     public final Long id;
-    public final String payload;
+    public final byte[] payload; // opaque bytes, stored as bytea
+    public final Instant createdAt; // set by the DB on insert, null until the event is polled
 
+    /**
+     * A text payload, stored as UTF-8.
+     */
     public Event(String payload) {
-        this(null, payload);
+        this(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Event(byte[] payload) {
+        this(null, payload, null);
     }
 
-    public Event(Long id, String payload) {
+    public Event(Long id, byte[] payload, Instant createdAt) {
         this.id = id;
         this.payload = payload;
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * Read-only view of the payload without copying it.
+     */
+    public ByteBuffer getPayloadBuffer() {
+        return ByteBuffer.wrap(payload).asReadOnlyBuffer();
     }
 
     @Override
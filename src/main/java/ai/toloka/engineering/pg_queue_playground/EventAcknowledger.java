@@ -0,0 +1,86 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ai.toloka.engineering.pg_queue_playground.misc.TransactionManager;
+
+/**
+ * Deletes consumed events of one table with one of two fixed statements, whatever the batch size is. A dense batch,
+ * which is the usual result of an id-ordered cursor, is collapsed into runs of consecutive ids and deleted by ranges,
+ * a sparse one is deleted by an id array.
+ * <p>
+ * Ids are consecutive when they differ by idStep, e.g. when the condition keeps only the ids with the same remainder.
+ */
+public class EventAcknowledger {
+
+    private final SqlCondition condition;
+    private final String deleteByIdsSql;
+    private final String deleteByRangesSql;
+    private final long idStep;
+
+    public EventAcknowledger(String table) {
+        this(table, SqlCondition.TRUE, 1);
+    }
+
+    public EventAcknowledger(String table, SqlCondition condition, long idStep) {
+        this.condition = condition;
+        this.deleteByIdsSql = "delete from " + table + " " +
+                "where " + condition.sql() + " and id = any(?::bigint[])";
+        this.deleteByRangesSql = "delete from " + table + " q " +
+                "using unnest(?::bigint[], ?::bigint[]) as r(from_id, to_id) " +
+                "where " + condition.sql() + " and q.id between r.from_id and r.to_id";
+        this.idStep = idStep;
+    }
+
+    public void ack(TransactionManager txManager, List<Event> events) {
+        long[] ids = events.stream().mapToLong(e -> e.id).toArray();
+        ack(txManager, ids, ids.length);
+    }
+
+    /**
+     * Deletes the events with the first count ids, e.g. the ids column of an {@link EventBatch}.
+     */
+    public void ack(TransactionManager txManager, long[] ids, int count) {
+        if (count == 0) {
+            return;
+        }
+        long[] sortedIds = ids;
+        for (int i = 1; i < count; i++) {
+            if (ids[i] < ids[i - 1]) {
+                sortedIds = Arrays.copyOf(ids, count);
+                Arrays.sort(sortedIds);
+                break;
+            }
+        }
+        int runCount = 1;
+        for (int i = 1; i < count; i++) {
+            if (sortedIds[i] != sortedIds[i - 1] + idStep) {
+                runCount += 1;
+            }
+        }
+        if (runCount * 2 > count) {
+            long[] idsToDelete = Arrays.copyOf(sortedIds, count);
+            txManager.execute(deleteByIdsSql, (TransactionManager.PreparedStatementConsumer) ps ->
+                    ps.setArray(condition.bind(ps, 1), AbstractPgQueueBuffer.bigintArray(ps, idsToDelete)));
+            return;
+        }
+        long[] froms = new long[runCount];
+        long[] tos = new long[runCount];
+        int run = 0;
+        froms[0] = sortedIds[0];
+        for (int i = 1; i < count; i++) {
+            if (sortedIds[i] != sortedIds[i - 1] + idStep) {
+                tos[run] = sortedIds[i - 1];
+                run += 1;
+                froms[run] = sortedIds[i];
+            }
+        }
+        tos[run] = sortedIds[count - 1];
+        txManager.execute(deleteByRangesSql, (TransactionManager.PreparedStatementConsumer) ps -> {
+            ps.setArray(1, AbstractPgQueueBuffer.bigintArray(ps, froms));
+            ps.setArray(2, AbstractPgQueueBuffer.bigintArray(ps, tos));
+            condition.bind(ps, 3);
+        });
+    }
+}
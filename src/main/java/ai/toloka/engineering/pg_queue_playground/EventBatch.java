@@ -0,0 +1,157 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Columnar batch of polled events: ids and creation times in primitive arrays, payloads one after another in a
+ * shared array. A reader keeps one batch and passes it to every poll, so once the arrays have grown to
+ * the batch size, polling allocates nothing per event. The consumer must not keep the batch, it's cleared by the
+ * next poll.
+ */
+public final class EventBatch {
+
+    /**
+     * Creation time of an event which hasn't got one, see {@link Event#createdAt}.
+     */
+    public static final long UNKNOWN_CREATED_AT = Long.MIN_VALUE;
+
+    private long[] ids;
+    private long[] createdAtMicros;
+    private int[] payloadEnds;
+    private byte[] payloads;
+    private int size;
+
+    public EventBatch() {
+        this(16, 1_024);
+    }
+
+    public EventBatch(int capacity, int payloadCapacity) {
+        this.ids = new long[capacity];
+        this.createdAtMicros = new long[capacity];
+        this.payloadEnds = new int[capacity];
+        this.payloads = new byte[payloadCapacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public long getId(int index) {
+        return ids[Objects.checkIndex(index, size)];
+    }
+
+    /**
+     * The ids column itself, valid up to {@link #size()}.
+     */
+    public long[] getIds() {
+        return ids;
+    }
+
+    public long getCreatedAtEpochMicros(int index) {
+        return createdAtMicros[Objects.checkIndex(index, size)];
+    }
+
+    /**
+     * The payloads column itself, the payload of an event is at {@link #getPayloadOffset} in it.
+     */
+    public byte[] getPayloadBytes() {
+        return payloads;
+    }
+
+    public int getPayloadOffset(int index) {
+        return Objects.checkIndex(index, size) == 0 ? 0 : payloadEnds[index - 1];
+    }
+
+    public int getPayloadLength(int index) {
+        return payloadEnds[Objects.checkIndex(index, size)] - getPayloadOffset(index);
+    }
+
+    /**
+     * Copies the payload out of the batch.
+     */
+    public byte[] getPayload(int index) {
+        int offset = getPayloadOffset(index);
+        return Arrays.copyOfRange(payloads, offset, offset + getPayloadLength(index));
+    }
+
+    /**
+     * Read-only view of the payload in the batch without copying it, valid until the batch is cleared.
+     */
+    public ByteBuffer getPayloadBuffer(int index) {
+        return ByteBuffer.wrap(payloads, getPayloadOffset(index), getPayloadLength(index)).slice().asReadOnlyBuffer();
+    }
+
+    public void add(long id, byte[] payload, long createdAtEpochMicros) {
+        add(id, payload, 0, payload.length, createdAtEpochMicros);
+    }
+
+    /**
+     * Adds the payload from a part of the array, e.g. from the payloads column of another batch.
+     */
+    public void add(long id, byte[] payload, int payloadOffset, int payloadLength, long createdAtEpochMicros) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            createdAtMicros = Arrays.copyOf(createdAtMicros, capacity);
+            payloadEnds = Arrays.copyOf(payloadEnds, capacity);
+        }
+        int offset = size == 0 ? 0 : payloadEnds[size - 1];
+        if (offset + payloadLength > payloads.length) {
+            payloads = Arrays.copyOf(payloads, Math.max(payloads.length * 2, offset + payloadLength));
+        }
+        System.arraycopy(payload, payloadOffset, payloads, offset, payloadLength);
+        ids[size] = id;
+        createdAtMicros[size] = createdAtEpochMicros;
+        payloadEnds[size] = offset + payloadLength;
+        size += 1;
+    }
+
+    public void add(Event event) {
+        long createdAtEpochMicros = event.createdAt != null
+                ? event.createdAt.getEpochSecond() * 1_000_000 + event.createdAt.getNano() / 1_000
+                : UNKNOWN_CREATED_AT;
+        add(event.id, event.payload, createdAtEpochMicros);
+    }
+
+    /**
+     * Adapts a consumer of the batch to the list-based poll: every polled list is copied into the batch, which is then
+     * passed on. For the buffers which have no columnar poll of their own.
+     */
+    public static Consumer<List<Event>> refilling(EventBatch batch, Consumer<EventBatch> consumer) {
+        return events -> {
+            batch.clear();
+            events.forEach(batch::add);
+            consumer.accept(batch);
+        };
+    }
+
+    /**
+     * Materializes the batch for the list-based API.
+     */
+    public List<Event> toEvents() {
+        List<Event> events = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            long micros = createdAtMicros[i];
+            Instant createdAt = micros == UNKNOWN_CREATED_AT
+                    ? null
+                    : Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                            Math.floorMod(micros, 1_000_000) * 1_000L);
+            events.add(new Event(ids[i], getPayload(i), createdAt));
+        }
+        return events;
+    }
+}
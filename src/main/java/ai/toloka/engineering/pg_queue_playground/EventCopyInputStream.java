@@ -0,0 +1,75 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Lazily encodes events into the PostgreSQL binary COPY format with a single payload column, so an arbitrary long
+ * iterator can be streamed to {@code copy ... from stdin (format binary)} without materializing it in memory.
+ * See "Binary Format" in https://www.postgresql.org/docs/current/sql-copy.html
+ */
+class EventCopyInputStream extends InputStream {
+
+    private static final byte[] HEADER = {
+            'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0, // signature
+            0, 0, 0, 0, // flags
+            0, 0, 0, 0 // header extension length
+    };
+    private static final byte[] TRAILER = {(byte) 0xFF, (byte) 0xFF};
+
+    private final Iterator<Event> events;
+
+    private byte[] chunk = HEADER;
+    private int position;
+    private boolean finished;
+
+    EventCopyInputStream(Iterator<Event> events) {
+        this.events = events;
+    }
+
+    @Override
+    public int read() {
+        if (position == chunk.length && !nextChunk()) {
+            return -1;
+        }
+        return chunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < length) {
+            if (position == chunk.length && !nextChunk()) {
+                break;
+            }
+            int n = Math.min(length - read, chunk.length - position);
+            System.arraycopy(chunk, position, bytes, offset + read, n);
+            position += n;
+            read += n;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    private boolean nextChunk() {
+        if (finished) {
+            return false;
+        }
+        if (events.hasNext()) {
+            byte[] payload = events.next().payload;
+            chunk = ByteBuffer.allocate(2 + 4 + payload.length)
+                    .putShort((short) 1) // field count
+                    .putInt(payload.length)
+                    .put(payload)
+                    .array();
+        } else {
+            chunk = TRAILER;
+            finished = true;
+        }
+        position = 0;
+        return true;
+    }
+}
@@ -0,0 +1,222 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import ai.toloka.engineering.pg_queue_playground.misc.ApplicationName;
+import ai.toloka.engineering.pg_queue_playground.misc.TransactionManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Group commit for fire-and-forget producers. Events offered by concurrent callers are queued without any transaction
+ * and a single flusher inserts them with one offerAll and one commit per batch, so all of them share the commit wait
+ * on the sync replica. A batch is flushed when it reaches maxBatchSize or when its oldest event has waited lingerMs.
+ * <p>
+ * Everything except offer is passed to the delegate as is.
+ */
+public class GroupCommitPgQueueBuffer implements PgQueueBuffer, Runnable, Closeable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final PgQueueBuffer delegate;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final Queue<PendingEvent> pendingEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicLong flushedEventCount = new AtomicLong();
+    private final AtomicLong flushedBatchCount = new AtomicLong();
+
+    private volatile TransactionManager txManager;
+    private volatile Thread flusher;
+    private volatile boolean enabled = true;
+
+    public GroupCommitPgQueueBuffer(PgQueueBuffer delegate, int maxBatchSize, int lingerMs) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max batch size should be greater or equal to 1");
+        }
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+    }
+
+    @Override
+    public void init(TransactionManager txManager) {
+        this.txManager = txManager;
+        delegate.init(txManager);
+    }
+
+    @Override
+    public void run() {
+        if (delegate instanceof Runnable) {
+            Thread.ofVirtual().start(() -> {
+                txManager.setApplicationName(ApplicationName.VACUUM);
+                ((Runnable) delegate).run();
+            });
+        }
+        txManager.setApplicationName(ApplicationName.WRITER); // the flusher writes for the writers
+        flusher = Thread.currentThread();
+        try {
+            flushWhileEnabled();
+        } finally {
+            failPending();
+            logger.info("Group commit flusher is stopped ({} events in {} batches)",
+                    flushedEventCount.get(), flushedBatchCount.get());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        enabled = false;
+        LockSupport.unpark(flusher);
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    private void flushWhileEnabled() {
+        List<PendingEvent> batch = new ArrayList<>(maxBatchSize);
+        while (enabled || !pendingEvents.isEmpty()) {
+            PendingEvent first = pendingEvents.poll();
+            if (first == null) {
+                // offerAsync and close unpark the flusher, and parkNanos would spin with lingerMs = 0
+                LockSupport.park(this);
+                continue;
+            }
+            batch.add(first);
+            long deadlineNanos = first.enqueuedNanos + lingerNanos;
+            while (batch.size() < maxBatchSize) {
+                PendingEvent next = pendingEvents.poll();
+                if (next != null) {
+                    batch.add(next);
+                    continue;
+                }
+                long remainingNanos = deadlineNanos - System.nanoTime();
+                if (remainingNanos <= 0 || !enabled) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remainingNanos);
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    private void flush(List<PendingEvent> batch) {
+        List<Event> events = batch.stream().map(PendingEvent::event).toList();
+        try {
+            txManager.begin();
+            delegate.offerAll(events);
+            txManager.commit();
+        } catch (RuntimeException e) {
+            logger.error("Unexpected exception while flushing {} events", events.size(), e);
+            txManager.rollbackSafely();
+            batch.forEach(pendingEvent -> pendingEvent.future.completeExceptionally(e));
+            return;
+        }
+        flushedEventCount.addAndGet(events.size());
+        flushedBatchCount.incrementAndGet();
+        batch.forEach(pendingEvent -> pendingEvent.future.complete(null));
+    }
+
+    private void failPending() {
+        PendingEvent pendingEvent;
+        while ((pendingEvent = pendingEvents.poll()) != null) {
+            pendingEvent.future.completeExceptionally(new IllegalStateException("Group commit buffer is closed"));
+        }
+    }
+
+    /**
+     * Queues the event for the next group commit. The future completes once the batch with the event is committed,
+     * or exceptionally if the batch is rolled back or the buffer is closed.
+     */
+    public CompletableFuture<Void> offerAsync(Event event) {
+        var pendingEvent = new PendingEvent(event, System.nanoTime(), new CompletableFuture<>());
+        pendingEvents.add(pendingEvent);
+        LockSupport.unpark(flusher);
+        if (!enabled) {
+            failPending(); // the flusher may be gone already
+        }
+        return pendingEvent.future;
+    }
+
+    /**
+     * Blocks until the event is committed together with the events of concurrent callers. Unlike the other buffers,
+     * the event isn't a part of the caller's transaction, so there is no need to open one.
+     */
+    @Override
+    public void offer(Event event) {
+        offerAsync(event).join();
+    }
+
+    @Override
+    public void offerAll(Collection<Event> events) {
+        delegate.offerAll(events);
+    }
+
+    @Override
+    public void copyAll(Iterable<Event> events) {
+        delegate.copyAll(events);
+    }
+
+    @Override
+    public void setNotifyEnabled(boolean notifyEnabled) {
+        delegate.setNotifyEnabled(notifyEnabled);
+    }
+
+    @Override
+    public void registerReader(String readerName) {
+        delegate.registerReader(readerName);
+    }
+
+    @Override
+    public void unregisterReader(String readerName) {
+        delegate.unregisterReader(readerName);
+    }
+
+    @Override
+    public void poll(int count, Consumer<List<Event>> consumer) {
+        delegate.poll(count, consumer);
+    }
+
+    @Override
+    public void poll(int count, EventBatch batch, Consumer<EventBatch> consumer) {
+        delegate.poll(count, batch, consumer);
+    }
+
+    @Override
+    public long size() {
+        return delegate.size();
+    }
+
+    @Override
+    public long estimateSize() {
+        return delegate.estimateSize();
+    }
+
+    @Override
+    public boolean isSyncCommitEnabled() {
+        return delegate.isSyncCommitEnabled();
+    }
+
+    @Override
+    public String toString() {
+        return "GroupCommitPgQueueBuffer{" +
+                "delegate=" + delegate.getClass().getSimpleName() +
+                ", maxBatchSize=" + maxBatchSize +
+                ", lingerNanos=" + lingerNanos +
+                '}';
+    }
+
+    private record PendingEvent(Event event, long enqueuedNanos, CompletableFuture<Void> future) {
+    }
+}
@@ -0,0 +1,226 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Shared read position over an id-ordered queue table. Every id up to {@link #getHigh()} is either consumed, claimed
+ * by an in-flight poll, or belongs to a gap: an id which wasn't visible when the range was scanned, because its insert
+ * wasn't committed yet, it was claimed by another process, or it's a sequence hole that never becomes visible.
+ * <p>
+ * Readers scan the head after the high water mark and every gapRescanEvery polls they revisit the gaps only, so
+ * consumed ranges are never scanned again. A gap is closed once every transaction which could have inserted into it
+ * is finished, i.e. when the snapshot xmin passes the snapshot xmax remembered at the gap detection.
+ * <p>
+ * A cursor may cover only the ids with the given remainder modulo the given modulus, then ids from other remainders
+ * aren't gaps.
+ */
+public class IdCursor {
+
+    private static final long GAP_GRACE_NANOS = 1_000_000_000L; // nextval is called before the inserter gets an xid
+
+    private final int gapRescanEvery;
+    private final long modulus;
+    private final long remainder;
+
+    private final TreeMap<Long, Gap> gaps = new TreeMap<>();
+    private final NavigableSet<Long> inFlight = new TreeSet<>();
+
+    private long high = -1;
+    private long pollCount;
+
+    public IdCursor(int gapRescanEvery) {
+        this(gapRescanEvery, 1, 0);
+    }
+
+    public IdCursor(int gapRescanEvery, long modulus, long remainder) {
+        this.gapRescanEvery = gapRescanEvery;
+        this.modulus = modulus;
+        this.remainder = remainder;
+    }
+
+    public synchronized long getHigh() {
+        return high;
+    }
+
+    public synchronized int getGapCount() {
+        return gaps.size();
+    }
+
+    public synchronized boolean isGapRescanDue() {
+        pollCount += 1;
+        return !gaps.isEmpty() && pollCount % gapRescanEvery == 0;
+    }
+
+    public synchronized GapRanges getGapRanges() {
+        long[] froms = new long[gaps.size()];
+        long[] tos = new long[gaps.size()];
+        int i = 0;
+        for (Gap gap : gaps.values()) {
+            froms[i] = gap.from;
+            tos[i] = gap.to;
+            i += 1;
+        }
+        return new GapRanges(froms, tos);
+    }
+
+    /**
+     * Registers the first count ids claimed by a head scan after the given high water mark. The ids must be sorted.
+     */
+    public synchronized Claim claimHead(long[] ids, int count, long snapshotXmax) {
+        long[] claimed = Arrays.copyOf(ids, count);
+        claim(claimed);
+        if (count > 0) {
+            long now = System.nanoTime();
+            long previous = high;
+            // ids up to the current high were already accounted by the readers which moved it
+            for (long id : claimed) {
+                if (id > previous + 1) {
+                    addGap(previous + 1, id - 1, snapshotXmax, now);
+                }
+                previous = Math.max(previous, id);
+            }
+            high = previous;
+        }
+        return new Claim(claimed);
+    }
+
+    /**
+     * Registers the first count ids claimed by a gap rescan. If the rescan wasn't limited by the batch size, the
+     * rescanned gaps which can't be filled anymore are closed.
+     */
+    public synchronized Claim claimGaps(long[] ids, int count, GapRanges rescanned, boolean complete,
+                                        long snapshotXmin) {
+        long[] claimed = Arrays.copyOf(ids, count);
+        claim(claimed);
+        if (complete) {
+            long now = System.nanoTime();
+            gaps.values().removeIf(gap -> gap.xmax <= snapshotXmin
+                    && now - gap.detectedNanos > GAP_GRACE_NANOS
+                    && rescanned.covers(gap.from, gap.to));
+        }
+        return new Claim(claimed);
+    }
+
+    /**
+     * Forgets all gaps, e.g. when the table is known to be empty.
+     */
+    public synchronized void dropGaps() {
+        gaps.clear();
+    }
+
+    private void claim(long[] ids) {
+        for (long id : ids) {
+            inFlight.add(id);
+            removeFromGaps(id);
+        }
+    }
+
+    private synchronized void commit(long[] ids) {
+        for (long id : ids) {
+            inFlight.remove(id);
+        }
+    }
+
+    private synchronized void rollback(long[] ids) {
+        long now = System.nanoTime();
+        for (long id : ids) {
+            inFlight.remove(id);
+            addGap(id, id, 0, now); // still there, the next rescan picks it up
+        }
+    }
+
+    private void addGap(long from, long to, long xmax, long detectedNanos) {
+        // ids claimed by other readers aren't gaps
+        long start = from;
+        for (long id : inFlight.subSet(from, true, to, true)) {
+            if (id > start) {
+                putGap(start, id - 1, xmax, detectedNanos);
+            }
+            start = id + 1;
+        }
+        if (start <= to) {
+            putGap(start, to, xmax, detectedNanos);
+        }
+    }
+
+    private void putGap(long from, long to, long xmax, long detectedNanos) {
+        long firstCovered = from + Math.floorMod(remainder - from, modulus);
+        if (firstCovered > to) {
+            return;
+        }
+        Gap gap = new Gap(from, to, xmax, detectedNanos);
+        Map.Entry<Long, Gap> before = gaps.floorEntry(from - 1);
+        if (before != null && before.getValue().to == from - 1) {
+            gaps.remove(before.getKey());
+            gap = gap.merge(before.getValue());
+        }
+        Gap after = gaps.get(to + 1);
+        if (after != null) {
+            gaps.remove(after.from);
+            gap = gap.merge(after);
+        }
+        gaps.put(gap.from, gap);
+    }
+
+    private void removeFromGaps(long id) {
+        Map.Entry<Long, Gap> entry = gaps.floorEntry(id);
+        if (entry == null || entry.getValue().to < id) {
+            return;
+        }
+        Gap gap = gaps.remove(entry.getKey());
+        if (gap.from < id) {
+            gaps.put(gap.from, new Gap(gap.from, id - 1, gap.xmax, gap.detectedNanos));
+        }
+        if (gap.to > id) {
+            gaps.put(id + 1, new Gap(id + 1, gap.to, gap.xmax, gap.detectedNanos));
+        }
+    }
+
+    private record Gap(long from, long to, long xmax, long detectedNanos) {
+
+        Gap merge(Gap other) {
+            return new Gap(
+                    Math.min(from, other.from),
+                    Math.max(to, other.to),
+                    Math.max(xmax, other.xmax),
+                    Math.max(detectedNanos, other.detectedNanos)
+            );
+        }
+    }
+
+    public record GapRanges(long[] froms, long[] tos) {
+
+        boolean covers(long from, long to) {
+            for (int i = 0; i < froms.length; i++) {
+                if (froms[i] <= from && to <= tos[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Ids claimed by a single poll, to be completed after its transaction is committed or rolled back.
+     */
+    public final class Claim {
+
+        private final long[] ids;
+
+        private Claim(long[] ids) {
+            this.ids = ids;
+        }
+
+        public void commit() {
+            IdCursor.this.commit(ids);
+        }
+
+        public void rollback() {
+            IdCursor.this.rollback(ids);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package ai.toloka.engineering.pg_queue_playground;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -7,13 +8,52 @@ import ai.toloka.engineering.pg_queue_playground.misc.TransactionManager;
 
 public interface PgQueueBuffer {
 
+    String NOTIFY_CHANNEL = "queue_buffer_events";
+
     void init(TransactionManager txManager);
 
+    /**
+     * When enabled, every offer sends a NOTIFY on {@link #NOTIFY_CHANNEL}, which is delivered on commit.
+     */
+    void setNotifyEnabled(boolean notifyEnabled);
+
+    /**
+     * Called from the reader thread before its first poll, so a buffer can assign a part of the queue to it.
+     */
+    void registerReader(String readerName);
+
+    void unregisterReader(String readerName);
+
     void offer(Event event);
 
+    void offerAll(Collection<Event> events);
+
+    /**
+     * Streams events with COPY FROM STDIN in the caller's transaction, for bursts too large for offerAll.
+     */
+    void copyAll(Iterable<Event> events);
+
+    /**
+     * If the consumer throws, the claimed events are rolled back and redelivered. A CancellationException is the
+     * consumer's way to give the events back on purpose, it isn't logged as an error.
+     */
     void poll(int count, Consumer<List<Event>> consumer);
 
+    /**
+     * Columnar variant of poll for readers which reuse one batch: the batch is cleared, filled with the claimed events
+     * and passed to the consumer before the poll transaction commits. The consumer must not keep the batch.
+     */
+    default void poll(int count, EventBatch batch, Consumer<EventBatch> consumer) {
+        poll(count, EventBatch.refilling(batch, consumer));
+    }
+
     long size();
 
+    /**
+     * Backlog size at a constant cost, from the statistics of the queue tables instead of a count(*). It lags behind
+     * by about a second, as backends report the inserted and deleted tuples only once a second.
+     */
+    long estimateSize();
+
     boolean isSyncCommitEnabled(); // just for overhead reporting purpose
 }
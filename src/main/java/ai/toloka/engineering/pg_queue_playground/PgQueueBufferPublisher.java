@@ -0,0 +1,158 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reactive view over a buffer. Every subscription polls on its own virtual thread, claims as many events as the
+ * subscriber has requested (up to maxBatchSize) and backs off exponentially after empty polls. The poll transaction
+ * commits, i.e. the batch is acknowledged, only after onNext returned for every event of the batch. If the
+ * subscription is cancelled in the middle of a batch or onNext throws, the whole batch is rolled back and redelivered.
+ */
+public class PgQueueBufferPublisher implements Flow.Publisher<Event> {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final AtomicInteger counter = new AtomicInteger(1);
+
+    private final PgQueueBuffer buffer;
+    private final int maxBatchSize;
+    private final long minBackoffNanos;
+    private final long maxBackoffNanos;
+    private final Set<EventSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean closed;
+
+    public PgQueueBufferPublisher(PgQueueBuffer buffer, int maxBatchSize, int minBackoffMs, int maxBackoffMs) {
+        this.buffer = buffer;
+        this.maxBatchSize = maxBatchSize;
+        this.minBackoffNanos = TimeUnit.MILLISECONDS.toNanos(minBackoffMs);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMs);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Event> subscriber) {
+        Objects.requireNonNull(subscriber);
+        var subscription = new EventSubscription(subscriber, "publisher-" + counter.getAndIncrement());
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        if (closed) {
+            subscription.cancel();
+        }
+        Thread.ofVirtual().name(subscription.name).start(subscription);
+    }
+
+    /**
+     * Stops polling and completes every subscription.
+     */
+    public void close() {
+        closed = true;
+        subscriptions.forEach(EventSubscription::cancel);
+    }
+
+    private final class EventSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super Event> subscriber;
+        private final String name;
+        private final AtomicLong demand = new AtomicLong();
+
+        private volatile Thread thread;
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+
+        EventSubscription(Flow.Subscriber<? super Event> subscriber, String name) {
+            this.subscriber = subscriber;
+            this.name = name;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Non-positive request " + n); // see rule 3.9
+                cancel();
+                return;
+            }
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            buffer.registerReader(name);
+            try {
+                pollWhileNotCancelled();
+            } finally {
+                buffer.unregisterReader(name);
+                subscriptions.remove(this);
+                signalTermination();
+            }
+        }
+
+        private void pollWhileNotCancelled() {
+            long backoffNanos = minBackoffNanos;
+            while (!cancelled) {
+                long requested = demand.get();
+                if (requested == 0) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                int count = (int) Math.min(requested, maxBatchSize);
+                int[] delivered = new int[1];
+                buffer.poll(count, events -> {
+                    for (Event event : events) {
+                        if (cancelled) {
+                            throw new CancellationException("Subscription is cancelled, the batch is redelivered");
+                        }
+                        deliver(event);
+                        delivered[0] += 1;
+                    }
+                });
+                if (delivered[0] > 0) {
+                    demand.addAndGet(-delivered[0]);
+                    backoffNanos = minBackoffNanos;
+                } else {
+                    LockSupport.parkNanos(this, backoffNanos);
+                    backoffNanos = Math.min(backoffNanos * 2, maxBackoffNanos);
+                }
+            }
+        }
+
+        private void deliver(Event event) {
+            try {
+                subscriber.onNext(event);
+            } catch (RuntimeException e) {
+                cancelled = true; // see rule 2.13
+                throw e;
+            }
+        }
+
+        private void signalTermination() {
+            try {
+                if (error != null) {
+                    subscriber.onError(error);
+                } else if (closed) {
+                    subscriber.onComplete();
+                }
+            } catch (RuntimeException e) {
+                logger.error("Unexpected exception in subscriber {}", name, e);
+            }
+        }
+    }
+}
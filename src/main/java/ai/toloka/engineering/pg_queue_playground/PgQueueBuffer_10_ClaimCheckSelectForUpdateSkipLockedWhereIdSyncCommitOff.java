@@ -0,0 +1,314 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.io.Closeable;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import ai.toloka.engineering.pg_queue_playground.misc.TransactionManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import static ai.toloka.engineering.pg_queue_playground.misc.Util.elapsedMs;
+
+/**
+ * PgQueueBuffer_4 with the claim check pattern: payloads longer than inlineThresholdBytes go to the append-only
+ * queue_buffer_payload_store and the queue row keeps an empty payload in their place. The claim scan, the row locks
+ * and the deletes touch narrow rows only, and the stored payloads are fetched with one query after the claim.
+ * <p>
+ * Writers append to the active partition of the store. The rotation recycles the oldest partition by TRUNCATE once
+ * no queue row points to it, the same way PgQueueBuffer_7 recycles its queue partitions, so the store never gets dead
+ * tuples.
+ */
+public class PgQueueBuffer_10_ClaimCheckSelectForUpdateSkipLockedWhereIdSyncCommitOff
+        extends AbstractPgQueueBuffer
+        implements Runnable, Closeable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int COPY_BATCH_SIZE = 1_000;
+
+    private final IdCursor cursor;
+    private final EventAcknowledger acknowledger = new EventAcknowledger("queue_buffer_claim_check");
+    private final ThreadLocal<EventBatch> claimedBatch = ThreadLocal.withInitial(EventBatch::new);
+    private final int inlineThresholdBytes;
+    private final int slotCount;
+    private final int rotationDelaySec;
+
+    private volatile int activeSlot = 1;
+    private volatile boolean rotationEnabled = true;
+
+    public PgQueueBuffer_10_ClaimCheckSelectForUpdateSkipLockedWhereIdSyncCommitOff(int gapRescanEvery,
+                                                                                   int inlineThresholdBytes,
+                                                                                   int slotCount,
+                                                                                   int rotationDelaySec) {
+        super(false);
+
+        if (slotCount < 2) {
+            throw new IllegalArgumentException("Slot count should be greater or equal to 2");
+        }
+
+        this.cursor = new IdCursor(gapRescanEvery);
+        this.inlineThresholdBytes = inlineThresholdBytes;
+        this.slotCount = slotCount;
+        this.rotationDelaySec = rotationDelaySec;
+    }
+
+    @Override
+    public void init(TransactionManager txManager) {
+        super.init(txManager);
+        txManager.begin();
+        // see resources/db/migration/V7__create_claim_check_queue_buffer_tables.sql
+        for (int i = 1; i <= slotCount; i++) {
+            txManager.execute("create table if not exists " + storeTable(i) + " " +
+                    "partition of queue_buffer_payload_store (slot default " + i + ") " +
+                    "for values in (" + i + ")");
+        }
+        txManager.commit();
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(rotationDelaySec * 1_000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!rotationEnabled) {
+                return;
+            }
+            rotate();
+        }
+    }
+
+    @Override
+    public void close() {
+        rotationEnabled = false;
+    }
+
+    /**
+     * Recycles the oldest store partition and makes it the active one. The rotation is postponed while queue rows
+     * still point to the partition, which happens when readers lag behind.
+     */
+    public void rotate() {
+        int next = activeSlot % slotCount + 1;
+        try {
+            long startNano = System.nanoTime();
+            if (recycle(next)) {
+                activeSlot = next;
+                logger.info("Payload slot {} is recycled and active now (elapsed {} ms)", next, elapsedMs(startNano));
+            } else {
+                logger.info("Payload slot {} is still referenced, rotation is postponed", next);
+            }
+        } catch (Exception e) {
+            logger.error("Unexpected error during rotation to the payload slot {}", next, e);
+        }
+    }
+
+    /**
+     * Rolls back on a failure, e.g. on the lock timeout, otherwise the connection would keep the slot lock and every
+     * later rotation would time out on it.
+     */
+    private boolean recycle(int slot) {
+        try {
+            txManager.begin();
+            txManager.execute("set local lock_timeout = '30s'");
+            // wait for writers which picked the slot while it was still active, no new references show up after that
+            txManager.execute("select pg_advisory_xact_lock(?)",
+                    ps -> ps.setLong(1, slotLock(slot)),
+                    ResultSet::next);
+            boolean[] unreferenced = new boolean[1];
+            // see the partial index in resources/db/migration/V7__create_claim_check_queue_buffer_tables.sql
+            String sql = "select not exists (select 1 from queue_buffer_claim_check where payload_slot = ?)";
+            txManager.execute(sql,
+                    ps -> ps.setShort(1, (short) slot),
+                    rs -> {
+                        rs.next();
+                        unreferenced[0] = rs.getBoolean(1);
+                    });
+            if (unreferenced[0]) {
+                // readers fetch the payloads before they delete the queue rows, so nobody reads the slot anymore
+                txManager.execute("truncate " + storeTable(slot));
+            }
+            txManager.commit();
+            return unreferenced[0];
+        } catch (RuntimeException e) {
+            txManager.rollbackSafely();
+            throw e;
+        }
+    }
+
+    @Override
+    public void offer(Event event) {
+        offerAll(List.of(event));
+    }
+
+    /**
+     * Inserts the queue rows and the stored payloads with a single statement. The ids are taken from the queue
+     * sequence up front, in the order of the events, so the payloads can be stored under them.
+     */
+    @Override
+    public void offerAll(Collection<Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        int slot = getSharedLockOnActiveSlot();
+        byte[][] payloads = events.stream().map(e -> e.payload).toArray(byte[][]::new);
+        // the threshold and the slot are bound, only the store partition has to be inlined
+        String sql = "with p as (" +
+                "select nextval('queue_buffer_claim_check_id_seq') as id, payload, length(payload) > ? as stored " +
+                "from unnest(?::bytea[]) as u(payload)" +
+                "), q as (" +
+                "insert into queue_buffer_claim_check (id, payload, payload_slot) " +
+                "select id, case when stored then ''::bytea else payload end, " +
+                "case when stored then ?::smallint end " +
+                "from p" +
+                ") " +
+                "insert into " + storeTable(slot) + " (id, payload) " +
+                "select id, payload from p where stored";
+        txManager.execute(sql, (TransactionManager.PreparedStatementConsumer) ps -> {
+            ps.setInt(1, inlineThresholdBytes);
+            ps.setArray(2, ps.getConnection().createArrayOf("bytea", payloads));
+            ps.setShort(3, (short) slot);
+        });
+        notifyIfEnabled();
+    }
+
+    /**
+     * COPY fills one table only, so the events are inserted in batches of offerAll.
+     */
+    @Override
+    public void copyAll(Iterable<Event> events) {
+        List<Event> batch = new ArrayList<>(COPY_BATCH_SIZE);
+        for (Event event : events) {
+            batch.add(event);
+            if (batch.size() == COPY_BATCH_SIZE) {
+                offerAll(batch);
+                batch.clear();
+            }
+        }
+        offerAll(batch);
+    }
+
+    private int getSharedLockOnActiveSlot() {
+        int slot = activeSlot;
+        txManager.execute("select pg_advisory_xact_lock_shared(?)",
+                ps -> ps.setLong(1, slotLock(slot)),
+                ResultSet::next);
+        return slot;
+    }
+
+    @Override
+    public void pollInner(int count, Consumer<List<Event>> consumer) {
+        pollInnerAsList(count, consumer);
+    }
+
+    @Override
+    protected void pollInner(int count, EventBatch batch, Consumer<EventBatch> consumer) {
+        EventBatch claimed = claimedBatch.get();
+        selectByCursor("queue_buffer_claim_check", SqlCondition.TRUE, cursor, count, claimed);
+        fetchStoredPayloads(claimed, batch);
+
+        consumer.accept(batch);
+
+        if (batch.isEmpty()) {
+            return;
+        }
+        acknowledger.ack(txManager, batch.getIds(), batch.size());
+
+        txManager.execute("set local synchronous_commit to off");
+    }
+
+    /**
+     * Fetches the stored payloads of the claimed events. A stored payload is never empty, so only the events with an
+     * empty payload are looked up. The queue rows tell which of them are stored, so a payload missing in the store
+     * fails the poll instead of being delivered as empty.
+     */
+    private void fetchStoredPayloads(EventBatch claimed, EventBatch batch) {
+        long[] candidateIds = new long[claimed.size()];
+        int candidateCount = 0;
+        for (int i = 0; i < claimed.size(); i++) {
+            if (claimed.getPayloadLength(i) == 0) {
+                candidateIds[candidateCount++] = claimed.getId(i);
+            }
+        }
+        long[] storedIds = new long[candidateCount];
+        byte[][] storedPayloads = new byte[candidateCount][];
+        int[] storedCount = new int[1];
+        if (candidateCount > 0) {
+            long[] ids = Arrays.copyOf(candidateIds, candidateCount);
+            String sql = "select q.id, q.payload_slot, s.payload " +
+                    "from queue_buffer_claim_check q " +
+                    "left join queue_buffer_payload_store s on s.slot = q.payload_slot and s.id = q.id " +
+                    "where q.id = any(?) and q.payload_slot is not null " +
+                    "order by q.id";
+            txManager.execute(sql,
+                    ps -> ps.setArray(1, bigintArray(ps, ids)),
+                    rs -> {
+                        while (rs.next()) {
+                            long id = rs.getLong(1);
+                            byte[] payload = rs.getBytes(3);
+                            if (payload == null) {
+                                throw new IllegalStateException("Payload of the event " + id + " is missing " +
+                                        "in the payload slot " + rs.getShort(2));
+                            }
+                            storedIds[storedCount[0]] = id;
+                            storedPayloads[storedCount[0]] = payload;
+                            storedCount[0] += 1;
+                        }
+                    });
+        }
+        mergeStoredPayloads(claimed, storedIds, storedPayloads, storedCount[0], batch);
+    }
+
+    /**
+     * Copies the claimed events into the batch with the stored payloads in place of their empty ones. Both the
+     * claimed events and the stored payloads are ordered by id, so they are merged in one pass.
+     */
+    static void mergeStoredPayloads(EventBatch claimed, long[] storedIds, byte[][] storedPayloads, int storedCount,
+                                    EventBatch batch) {
+        batch.clear();
+        int next = 0;
+        for (int i = 0; i < claimed.size(); i++) {
+            long id = claimed.getId(i);
+            if (next < storedCount && storedIds[next] == id) {
+                batch.add(id, storedPayloads[next], claimed.getCreatedAtEpochMicros(i));
+                next += 1;
+            } else {
+                batch.add(id, claimed.getPayloadBytes(), claimed.getPayloadOffset(i), claimed.getPayloadLength(i),
+                        claimed.getCreatedAtEpochMicros(i));
+            }
+        }
+        if (next < storedCount) {
+            throw new IllegalStateException("Stored payload of the event " + storedIds[next] + " is not claimed");
+        }
+    }
+
+    private static long slotLock(int slot) {
+        return 3_000_000_000L + slot;
+    }
+
+    private static String storeTable(int slot) {
+        return "queue_buffer_payload_store_" + slot;
+    }
+
+    @Override
+    public long size() {
+        long[] result = new long[1];
+        txManager.executeWithoutTx("select count(*) from queue_buffer_claim_check", rs -> {
+            rs.next();
+            result[0] = rs.getLong(1);
+        });
+        return result[0];
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimateSize("queue_buffer_claim_check");
+    }
+}
@@ -1,14 +1,14 @@
 package ai.toloka.engineering.pg_queue_playground;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
-
-import ai.toloka.engineering.pg_queue_playground.misc.TransactionManager;
 
 public class PgQueueBuffer_1_SelectForUpdate extends AbstractPgQueueBuffer {
 
+    private final EventAcknowledger acknowledger = new EventAcknowledger("queue_buffer");
+
     public PgQueueBuffer_1_SelectForUpdate() {
         super(true);
     }
@@ -16,7 +16,7 @@ public class PgQueueBuffer_1_SelectForUpdate extends AbstractPgQueueBuffer {
     @Override
     public void pollInner(int count, Consumer<List<Event>> consumer) {
         List<Event> events = new ArrayList<>();
-        String sql = "select id, payload " +
+        String sql = "select id, payload, created_at " +
                 "from queue_buffer " +
                 "order by id " +
                 "for update " +
@@ -26,8 +26,9 @@ public class PgQueueBuffer_1_SelectForUpdate extends AbstractPgQueueBuffer {
                 rs -> {
                     while (rs.next()) {
                         long id = rs.getLong(1);
-                        String payload = rs.getString(2);
-                        events.add(new Event(id, payload));
+                        byte[] payload = rs.getBytes(2);
+                        Instant createdAt = rs.getTimestamp(3).toInstant();
+                        events.add(new Event(id, payload, createdAt));
                     }
                 });
 
@@ -36,12 +37,6 @@ public class PgQueueBuffer_1_SelectForUpdate extends AbstractPgQueueBuffer {
         if (events.isEmpty()) {
             return;
         }
-        String params = events.stream().map(e -> "?").collect(Collectors.joining(","));
-        sql = "delete from queue_buffer where id in (" + params + ")";
-        txManager.execute(sql, (TransactionManager.PreparedStatementConsumer) ps -> {
-            for (int i = 0; i < events.size(); i++) {
-                ps.setLong(i + 1, events.get(i).id);
-            }
-        });
+        acknowledger.ack(txManager, events);
     }
 }
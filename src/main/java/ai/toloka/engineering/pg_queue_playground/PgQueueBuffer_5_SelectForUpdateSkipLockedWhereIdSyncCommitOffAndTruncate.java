@@ -2,11 +2,12 @@ package ai.toloka.engineering.pg_queue_playground;
 
 import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -26,32 +27,47 @@ public class PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTru
 
     private static final Logger logger = LogManager.getLogger();
 
-    private final int resetEvery;
     private final int partitionCount;
-    private final int pseudoVacuumDelaySec;
+    private final int pseudoVacuumSampleDelayMs;
+    private final PseudoVacuumThresholds pseudoVacuumThresholds;
     private final Map<Integer, Long> tableLocks = new ConcurrentHashMap<>();
-    private final Map<Integer, AtomicLong> resetCounts = new ConcurrentHashMap<>();
-    private final Map<Integer, Long> lastIds = new ConcurrentHashMap<>();
+    private final Map<Integer, IdCursor> cursors = new ConcurrentHashMap<>();
+    private final Map<Integer, EventAcknowledger> acknowledgers = new ConcurrentHashMap<>();
 
     private volatile boolean pseudoVacuumEnabled = true;
 
-    public PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTruncate(int resetEvery,
+    /**
+     * Rewrites every partition each pseudoVacuumDelaySec regardless of its state.
+     */
+    public PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTruncate(int gapRescanEvery,
                                                                                     int partitionCount,
                                                                                     int pseudoVacuumDelaySec) {
+        this(gapRescanEvery, partitionCount, pseudoVacuumDelaySec * 1_000, PseudoVacuumThresholds.ALWAYS);
+    }
+
+    /**
+     * Samples the partition statistics each pseudoVacuumSampleDelayMs and rewrites only the partitions which cross
+     * the thresholds.
+     */
+    public PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTruncate(
+            int gapRescanEvery,
+            int partitionCount,
+            int pseudoVacuumSampleDelayMs,
+            PseudoVacuumThresholds pseudoVacuumThresholds) {
         super(false);
 
         if (partitionCount > MAX_PARTITION_COUNT) {
             throw new IllegalArgumentException("Partition count should be less or equal to " + MAX_PARTITION_COUNT);
         }
 
-        this.resetEvery = resetEvery;
         this.partitionCount = partitionCount;
-        this.pseudoVacuumDelaySec = pseudoVacuumDelaySec;
+        this.pseudoVacuumSampleDelayMs = pseudoVacuumSampleDelayMs;
+        this.pseudoVacuumThresholds = pseudoVacuumThresholds;
 
         for (int i = 1; i <= partitionCount; i++) {
             tableLocks.put(i, 1_000_000_000L + i);
-            resetCounts.put(i, new AtomicLong());
-            lastIds.put(i, -1L);
+            cursors.put(i, new IdCursor(gapRescanEvery));
+            acknowledgers.put(i, new EventAcknowledger("queue_buffer_" + i));
         }
     }
 
@@ -59,7 +75,7 @@ public class PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTru
     public void run() {
         while (!Thread.currentThread().isInterrupted()) {
             try {
-                Thread.sleep(pseudoVacuumDelaySec * 1_000L);
+                Thread.sleep(pseudoVacuumSampleDelayMs);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 return;
@@ -77,37 +93,69 @@ public class PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTru
     }
 
     public void runPseudoVacuum() {
+        Map<Integer, TableStat> tableStats = sampleTableStats();
         List<Integer> tableKeys = tableLocks.keySet().stream().sorted().toList();
         for (Integer tableKey : tableKeys) {
+            TableStat tableStat = tableStats.getOrDefault(tableKey, TableStat.EMPTY);
+            if (!pseudoVacuumThresholds.isCrossed(tableStat)) {
+                continue;
+            }
             try {
-                runVacuumAnalyze(tableKey);
                 long startNano = System.nanoTime();
-                runPseudoVacuum(tableKey);
-                logger.info("Finish pseudo vacuum for the table {} (elapsed {} ms)", tableKey,
-                        elapsedMs(startNano));
+                PseudoVacuumResult result = runPseudoVacuum(tableKey);
+                logger.info("Finish pseudo vacuum for the table {} (elapsed {} ms, lock wait {} ms, " +
+                                "exclusive lock stall {} ms, copied {}; before: live {}, dead {}, size {} bytes)",
+                        tableKey, elapsedMs(startNano), result.lockWaitMs(), result.stallMs(), result.copied(),
+                        tableStat.liveTuples(), tableStat.deadTuples(), tableStat.sizeBytes());
             } catch (Exception e) {
                 logger.error("Unexpected error during pseudo vacuum for the table {}", tableKey, e);
             }
         }
     }
 
-    private void runVacuumAnalyze(Integer tableKey) {
-        txManager.executeWithoutTx("vacuum analyze queue_buffer_" + tableKey);
+    private Map<Integer, TableStat> sampleTableStats() {
+        Map<Integer, TableStat> tableStats = new HashMap<>();
+        String tableNames = tableLocks.keySet().stream()
+                .map(tableKey -> "'queue_buffer_" + tableKey + "'")
+                .collect(Collectors.joining(","));
+        String sql = "select relname, n_live_tup, n_dead_tup, pg_total_relation_size(relid) " +
+                "from pg_stat_user_tables " +
+                "where relname in (" + tableNames + ")";
+        txManager.executeWithoutTx(sql, rs -> {
+            while (rs.next()) {
+                int tableKey = Integer.parseInt(rs.getString(1).substring("queue_buffer_".length()));
+                tableStats.put(tableKey, new TableStat(rs.getLong(2), rs.getLong(3), rs.getLong(4)));
+            }
+        });
+        return tableStats;
     }
 
-    private void runPseudoVacuum(Integer tableKey) {
+    private PseudoVacuumResult runPseudoVacuum(Integer tableKey) {
         txManager.begin();
-        String sql = "SET LOCAL lock_timeout = '30s';" +
-                "SET LOCAL statement_timeout = '30s';" +
-                "SELECT pg_advisory_xact_lock(?);" +
-                "LOCK TABLE queue_buffer_" + tableKey + " IN ACCESS EXCLUSIVE MODE; " +
-                "CREATE TEMPORARY TABLE queue_buffer_" + tableKey + "_copy ON COMMIT DROP AS SELECT * FROM " +
-                "queue_buffer_" + tableKey + " WITH DATA; " +
-                "TRUNCATE queue_buffer_" + tableKey + "; " +
-                "INSERT INTO queue_buffer_" + tableKey + " SELECT * FROM queue_buffer_" + tableKey + "_copy";
-        txManager.execute(sql, (TransactionManager.PreparedStatementConsumer) ps ->
-                ps.setLong(1, tableLocks.get(tableKey)));
+        txManager.execute("SET LOCAL lock_timeout = '30s';" +
+                "SET LOCAL statement_timeout = '30s';");
+        long lockStartNano = System.nanoTime();
+        txManager.execute("SELECT pg_advisory_xact_lock(?);" +
+                        "LOCK TABLE queue_buffer_" + tableKey + " IN ACCESS EXCLUSIVE MODE;",
+                (TransactionManager.PreparedStatementConsumer) ps -> ps.setLong(1, tableLocks.get(tableKey)));
+        long lockedNano = System.nanoTime();
+        boolean[] empty = new boolean[1];
+        txManager.execute("select not exists (select 1 from queue_buffer_" + tableKey + ")",
+                (TransactionManager.ResultSetConsumer) rs -> {
+                    rs.next();
+                    empty[0] = rs.getBoolean(1);
+                });
+        if (empty[0]) {
+            txManager.execute("TRUNCATE queue_buffer_" + tableKey);
+            cursors.get(tableKey).dropGaps(); // writers are locked out, nothing can show up in the gaps anymore
+        } else {
+            txManager.execute("CREATE TEMPORARY TABLE queue_buffer_" + tableKey + "_copy ON COMMIT DROP AS " +
+                    "SELECT * FROM queue_buffer_" + tableKey + " WITH DATA; " +
+                    "TRUNCATE queue_buffer_" + tableKey + "; " +
+                    "INSERT INTO queue_buffer_" + tableKey + " SELECT * FROM queue_buffer_" + tableKey + "_copy");
+        }
         txManager.commit();
+        return new PseudoVacuumResult((lockedNano - lockStartNano) / 1_000_000L, elapsedMs(lockedNano), !empty[0]);
     }
 
     @Override
@@ -115,7 +163,23 @@ public class PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTru
         int tableKey = getSharedLockOnAnyTable();
         String sql = "insert into queue_buffer_" + tableKey + " (payload) values (?)";
         txManager.execute(sql, (TransactionManager.PreparedStatementConsumer) ps ->
-                ps.setString(1, event.payload));
+                ps.setBytes(1, event.payload));
+        notifyIfEnabled();
+    }
+
+    @Override
+    public void offerAll(Collection<Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        int tableKey = getSharedLockOnAnyTable();
+        offerAll("queue_buffer_" + tableKey, events);
+    }
+
+    @Override
+    public void copyAll(Iterable<Event> events) {
+        int tableKey = getSharedLockOnAnyTable();
+        copyAll("queue_buffer_" + tableKey, events);
     }
 
     private int getSharedLockOnAnyTable() {
@@ -160,44 +224,16 @@ public class PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTru
     public void pollInner(int count, Consumer<List<Event>> consumer) {
         int tableKey = getSharedLockOnAnyTable();
 
-        if (resetCounts.get(tableKey).incrementAndGet() % resetEvery == 0) {
-            lastIds.put(tableKey, -1L);
-        }
-
-        List<Event> events = new ArrayList<>();
-        String sql = "select id, payload " +
-                "from queue_buffer_" + tableKey + " " +
-                "where id>? " +
-                "order by id " +
-                "for update skip locked " +
-                "limit ?";
-        txManager.execute(sql, ps -> {
-            ps.setLong(1, lastIds.get(tableKey));
-            ps.setInt(2, count);
-        }, rs -> {
-            while (rs.next()) {
-                long id = rs.getLong(1);
-                String payload = rs.getString(2);
-                events.add(new Event(id, payload));
-            }
-        });
+        List<Event> events = selectByCursor("queue_buffer_" + tableKey, cursors.get(tableKey), count);
 
         consumer.accept(events);
 
         if (events.isEmpty()) {
             return;
         }
-        String params = events.stream().map(e -> "?").collect(Collectors.joining(","));
-        sql = "delete from queue_buffer_" + tableKey + " where id in (" + params + ")";
-        txManager.execute(sql, (TransactionManager.PreparedStatementConsumer) ps -> {
-            for (int i = 0; i < events.size(); i++) {
-                ps.setLong(i + 1, events.get(i).id);
-            }
-        });
+        acknowledgers.get(tableKey).ack(txManager, events);
 
         txManager.execute("set local synchronous_commit to off");
-
-        lastIds.put(tableKey, events.get(events.size() - 1).id);
     }
 
     @Override
@@ -212,4 +248,44 @@ public class PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTru
         }
         return result[0];
     }
+
+    @Override
+    public long estimateSize() {
+        String[] tables = new String[partitionCount];
+        for (int i = 1; i <= partitionCount; i++) {
+            tables[i - 1] = "queue_buffer_" + i;
+        }
+        return estimateSize(tables);
+    }
+
+    /**
+     * A partition is rewritten when it has enough dead tuples relative to the live ones, or when it takes too many
+     * bytes per live tuple, which is what a scan of the head pays for. Both conditions are inclusive, so zero values
+     * make every sample cross them.
+     */
+    public record PseudoVacuumThresholds(double maxDeadToLiveRatio,
+                                         long minDeadTuples,
+                                         long maxBytesPerLiveTuple,
+                                         long minSizeBytes) {
+
+        public static final PseudoVacuumThresholds ALWAYS = new PseudoVacuumThresholds(0, 0, 0, 0);
+        public static final PseudoVacuumThresholds DEFAULT =
+                new PseudoVacuumThresholds(1.0, 10_000, 4_096, 8 * 1024 * 1024);
+
+        boolean isCrossed(TableStat stat) {
+            boolean deadTuplesCrossed = stat.deadTuples() >= minDeadTuples
+                    && stat.deadTuples() >= maxDeadToLiveRatio * stat.liveTuples();
+            boolean sizeCrossed = stat.sizeBytes() >= minSizeBytes
+                    && stat.sizeBytes() >= maxBytesPerLiveTuple * Math.max(stat.liveTuples(), 1);
+            return deadTuplesCrossed || sizeCrossed;
+        }
+    }
+
+    private record TableStat(long liveTuples, long deadTuples, long sizeBytes) {
+
+        static final TableStat EMPTY = new TableStat(0, 0, 0);
+    }
+
+    private record PseudoVacuumResult(long lockWaitMs, long stallMs, boolean copied) {
+    }
 }
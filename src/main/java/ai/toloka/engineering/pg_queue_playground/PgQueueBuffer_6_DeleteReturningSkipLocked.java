@@ -0,0 +1,49 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Claims and removes a batch in a single round trip: the CTE locks the head of the queue with
+ * {@code for update skip locked} and the outer {@code delete ... returning} hands the rows back.
+ * The consumer is still called inside the same transaction, so a failure rolls the delete back.
+ */
+public class PgQueueBuffer_6_DeleteReturningSkipLocked extends AbstractPgQueueBuffer {
+
+    public PgQueueBuffer_6_DeleteReturningSkipLocked() {
+        super(true);
+    }
+
+    @Override
+    public void pollInner(int count, Consumer<List<Event>> consumer) {
+        List<Event> events = new ArrayList<>();
+        String sql = "with claimed as (" +
+                "select id " +
+                "from queue_buffer " +
+                "order by id " +
+                "for update skip locked " +
+                "limit ?) " +
+                "delete from queue_buffer q " +
+                "using claimed " +
+                "where q.id = claimed.id " +
+                "returning q.id, q.payload, q.created_at";
+        txManager.execute(sql,
+                ps -> ps.setInt(1, count),
+                rs -> {
+                    while (rs.next()) {
+                        long id = rs.getLong(1);
+                        byte[] payload = rs.getBytes(2);
+                        Instant createdAt = rs.getTimestamp(3).toInstant();
+                        events.add(new Event(id, payload, createdAt));
+                    }
+                });
+
+        // delete ... returning gives no ordering guarantee
+        events.sort(Comparator.comparing(e -> e.id));
+
+        consumer.accept(events);
+    }
+}
@@ -0,0 +1,252 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.io.Closeable;
+import java.sql.ResultSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import ai.toloka.engineering.pg_queue_playground.misc.TransactionManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import static ai.toloka.engineering.pg_queue_playground.misc.Util.elapsedMs;
+
+/**
+ * Keeps a ring of list partitions of queue_buffer_partitioned. Writers append to the active partition only, readers
+ * drain the older partitions first, and the rotation recycles the oldest one by TRUNCATE once it's empty, so dead
+ * tuples go away with the partition file without copying any live tuple.
+ */
+public class PgQueueBuffer_7_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndPartitionRotation
+        extends AbstractPgQueueBuffer
+        implements Runnable, Closeable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final int partitionCount;
+    private final int rotationDelaySec;
+    private final Map<Integer, Long> partitionLocks = new ConcurrentHashMap<>();
+    private final Map<Integer, IdCursor> cursors = new ConcurrentHashMap<>();
+    private final Map<Integer, EventAcknowledger> acknowledgers = new ConcurrentHashMap<>();
+    private final Set<Integer> drainedPartitions = ConcurrentHashMap.newKeySet();
+
+    private volatile int activePartition = 1;
+    private volatile boolean rotationEnabled = true;
+
+    public PgQueueBuffer_7_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndPartitionRotation(int gapRescanEvery,
+                                                                                           int partitionCount,
+                                                                                           int rotationDelaySec) {
+        super(false);
+
+        if (partitionCount < 2) {
+            throw new IllegalArgumentException("Partition count should be greater or equal to 2");
+        }
+
+        this.partitionCount = partitionCount;
+        this.rotationDelaySec = rotationDelaySec;
+
+        for (int i = 1; i <= partitionCount; i++) {
+            partitionLocks.put(i, 2_000_000_000L + i);
+            cursors.put(i, new IdCursor(gapRescanEvery));
+            acknowledgers.put(i, new EventAcknowledger(partitionTable(i)));
+        }
+    }
+
+    @Override
+    public void init(TransactionManager txManager) {
+        super.init(txManager);
+        txManager.begin();
+        // see resources/db/migration/V2__create_partitioned_queue_buffer_table.sql
+        for (int i = 1; i <= partitionCount; i++) {
+            txManager.execute("create table if not exists " + partitionTable(i) + " " +
+                    "partition of queue_buffer_partitioned (slot default " + i + ") " +
+                    "for values in (" + i + ")");
+        }
+        txManager.commit();
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(rotationDelaySec * 1_000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!rotationEnabled) {
+                return;
+            }
+            rotate();
+        }
+    }
+
+    @Override
+    public void close() {
+        rotationEnabled = false;
+    }
+
+    /**
+     * Recycles the oldest partition and makes it the active one. The rotation is postponed if the partition still
+     * has events, which happens when readers lag behind or a slow writer committed into it late.
+     */
+    public void rotate() {
+        int next = nextPartition(activePartition);
+        try {
+            long startNano = System.nanoTime();
+            boolean recycled = recycle(next);
+            if (recycled) {
+                activePartition = next; // before the drained flag is cleared, so readers can't mark it again
+            }
+            drainedPartitions.remove(next);
+            if (recycled) {
+                logger.info("Partition {} is recycled and active now (elapsed {} ms)", next, elapsedMs(startNano));
+            } else {
+                logger.info("Partition {} is not drained yet, rotation is postponed", next);
+            }
+        } catch (Exception e) {
+            logger.error("Unexpected error during rotation to the partition {}", next, e);
+        }
+    }
+
+    /**
+     * Rolls back on a failure, e.g. on the lock timeout, otherwise the connection would keep the advisory lock and
+     * every later rotation would time out on it.
+     */
+    private boolean recycle(int partition) {
+        try {
+            txManager.begin();
+            txManager.execute("set local lock_timeout = '30s'");
+            // wait for writers which picked the partition while it was still active
+            txManager.execute("select pg_advisory_xact_lock(?)",
+                    ps -> ps.setLong(1, partitionLocks.get(partition)),
+                    ResultSet::next);
+            txManager.execute("lock table " + partitionTable(partition) + " in access exclusive mode");
+            boolean[] empty = new boolean[1];
+            String sql = "select not exists (select 1 from " + partitionTable(partition) + ")";
+            txManager.execute(sql, (TransactionManager.ResultSetConsumer) rs -> {
+                rs.next();
+                empty[0] = rs.getBoolean(1);
+            });
+            if (empty[0]) {
+                txManager.execute("truncate " + partitionTable(partition));
+                cursors.get(partition).dropGaps(); // writers are locked out, nothing can show up in the gaps anymore
+            }
+            txManager.commit();
+            return empty[0];
+        } catch (RuntimeException e) {
+            txManager.rollbackSafely();
+            throw e;
+        }
+    }
+
+    @Override
+    public void offer(Event event) {
+        int partition = getSharedLockOnActivePartition();
+        String sql = "insert into " + partitionTable(partition) + " (payload) values (?)";
+        txManager.execute(sql, (TransactionManager.PreparedStatementConsumer) ps ->
+                ps.setBytes(1, event.payload));
+        notifyIfEnabled();
+    }
+
+    @Override
+    public void offerAll(Collection<Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        int partition = getSharedLockOnActivePartition();
+        offerAll(partitionTable(partition), events);
+    }
+
+    @Override
+    public void copyAll(Iterable<Event> events) {
+        int partition = getSharedLockOnActivePartition();
+        copyAll(partitionTable(partition), events);
+    }
+
+    private int getSharedLockOnActivePartition() {
+        int partition = activePartition;
+        txManager.execute("select pg_advisory_xact_lock_shared(?)",
+                ps -> ps.setLong(1, partitionLocks.get(partition)),
+                ResultSet::next);
+        return partition;
+    }
+
+    @Override
+    public void pollInner(int count, Consumer<List<Event>> consumer) {
+        int active = activePartition;
+        // from the oldest partition to the active one
+        for (int i = 1; i <= partitionCount; i++) {
+            int partition = (active + i - 1) % partitionCount + 1;
+            if (partition != active && drainedPartitions.contains(partition)) {
+                continue;
+            }
+            List<Event> events = selectByCursor(partitionTable(partition), cursors.get(partition), count);
+            if (events.isEmpty() && partition != active) {
+                // the active partition and the one rotated to next are never skipped
+                int current = activePartition;
+                if (partition != current && partition != nextPartition(current) && isDrained(partition)) {
+                    drainedPartitions.add(partition);
+                }
+                continue;
+            }
+            consumeAndDelete(partition, events, consumer);
+            return;
+        }
+    }
+
+    /**
+     * An empty claim only means that the rest is locked by other readers, which may still roll back. Unlike skip
+     * locked, the check sees those rows, and the lock makes sure no writer which picked the partition while it was
+     * still active is in flight.
+     */
+    private boolean isDrained(int partition) {
+        boolean[] drained = new boolean[1];
+        String sql = "select pg_try_advisory_xact_lock(?) " +
+                "and not exists (select 1 from " + partitionTable(partition) + ")";
+        txManager.execute(sql,
+                ps -> ps.setLong(1, partitionLocks.get(partition)),
+                rs -> {
+                    rs.next();
+                    drained[0] = rs.getBoolean(1);
+                });
+        return drained[0];
+    }
+
+    private void consumeAndDelete(int partition, List<Event> events, Consumer<List<Event>> consumer) {
+        consumer.accept(events);
+
+        if (events.isEmpty()) {
+            return;
+        }
+        acknowledgers.get(partition).ack(txManager, events);
+
+        txManager.execute("set local synchronous_commit to off");
+    }
+
+    private int nextPartition(int partition) {
+        return partition % partitionCount + 1;
+    }
+
+    private static String partitionTable(int partition) {
+        return "queue_buffer_partitioned_" + partition;
+    }
+
+    @Override
+    public long size() {
+        long[] result = new long[1];
+        txManager.executeWithoutTx("select count(*) from queue_buffer_partitioned", rs -> {
+            rs.next();
+            result[0] = rs.getLong(1);
+        });
+        return result[0];
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimateSize("queue_buffer_partitioned");
+    }
+}
@@ -0,0 +1,152 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import ai.toloka.engineering.pg_queue_playground.misc.TransactionManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Every row of queue_buffer_sharded belongs to the virtual shard id % VIRTUAL_SHARD_COUNT, and every registered reader
+ * owns a disjoint set of virtual shards with its own cursor per shard, so readers don't step over rows locked by each
+ * other. The shards are dealt round-robin again whenever a reader registers or unregisters.
+ */
+public class PgQueueBuffer_8_ShardedSelectForUpdateSkipLockedWhereIdSyncCommitOff extends AbstractPgQueueBuffer {
+
+    /**
+     * See resources/db/migration/V3__create_sharded_queue_buffer_table.sql (shard expression)
+     */
+    public static final int VIRTUAL_SHARD_COUNT = 64;
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final Map<Integer, SqlCondition> shardConditions = new ConcurrentHashMap<>();
+    private final Map<Integer, IdCursor> cursors = new ConcurrentHashMap<>();
+    private final Map<Integer, EventAcknowledger> acknowledgers = new ConcurrentHashMap<>();
+    private final TreeSet<String> readers = new TreeSet<>();
+    private final ThreadLocal<String> currentReader = new ThreadLocal<>();
+    private final ThreadLocal<Integer> nextShardIndex = ThreadLocal.withInitial(() -> 0);
+
+    private volatile Map<String, int[]> ownedShards = Map.of();
+
+    public PgQueueBuffer_8_ShardedSelectForUpdateSkipLockedWhereIdSyncCommitOff(int gapRescanEvery) {
+        super(false);
+        for (int shard = 0; shard < VIRTUAL_SHARD_COUNT; shard++) {
+            // the shard is bound, so every shard shares the same statements
+            SqlCondition shardCondition = new SqlCondition("shard = ?", (short) shard);
+            shardConditions.put(shard, shardCondition);
+            cursors.put(shard, new IdCursor(gapRescanEvery, VIRTUAL_SHARD_COUNT, shard));
+            acknowledgers.put(shard, new EventAcknowledger("queue_buffer_sharded", shardCondition,
+                    VIRTUAL_SHARD_COUNT));
+        }
+    }
+
+    @Override
+    public void offer(Event event) {
+        txManager.execute("insert into queue_buffer_sharded (payload) values (?)",
+                (TransactionManager.PreparedStatementConsumer) ps -> ps.setBytes(1, event.payload));
+        notifyIfEnabled();
+    }
+
+    @Override
+    public void offerAll(Collection<Event> events) {
+        offerAll("queue_buffer_sharded", events);
+    }
+
+    @Override
+    public void copyAll(Iterable<Event> events) {
+        copyAll("queue_buffer_sharded", events);
+    }
+
+    @Override
+    public void registerReader(String readerName) {
+        currentReader.set(readerName);
+        synchronized (readers) {
+            readers.add(readerName);
+            rebalance();
+        }
+    }
+
+    @Override
+    public void unregisterReader(String readerName) {
+        currentReader.remove();
+        synchronized (readers) {
+            readers.remove(readerName);
+            rebalance();
+        }
+    }
+
+    private void rebalance() {
+        if (readers.isEmpty()) {
+            ownedShards = Map.of();
+            return;
+        }
+        List<String> sortedReaders = new ArrayList<>(readers);
+        Map<String, List<Integer>> shards = new HashMap<>();
+        for (int shard = 0; shard < VIRTUAL_SHARD_COUNT; shard++) {
+            String reader = sortedReaders.get(shard % sortedReaders.size());
+            shards.computeIfAbsent(reader, r -> new ArrayList<>()).add(shard);
+        }
+        ownedShards = shards.entrySet().stream().collect(Collectors.toUnmodifiableMap(
+                Map.Entry::getKey,
+                e -> e.getValue().stream().mapToInt(Integer::intValue).toArray()
+        ));
+        if (readers.size() > VIRTUAL_SHARD_COUNT) {
+            logger.warn("There are {} readers for {} virtual shards, some of them stay idle",
+                    readers.size(), VIRTUAL_SHARD_COUNT);
+        }
+    }
+
+    @Override
+    public void pollInner(int count, Consumer<List<Event>> consumer) {
+        String reader = currentReader.get();
+        if (reader == null) {
+            throw new IllegalStateException("Reader is not registered, see PgQueueBuffer.registerReader");
+        }
+        int[] shards = ownedShards.getOrDefault(reader, new int[0]);
+        // take turns between the owned shards, the first non-empty one wins
+        int startIndex = nextShardIndex.get();
+        nextShardIndex.set(startIndex + 1);
+        for (int i = 0; i < shards.length; i++) {
+            int shard = shards[(startIndex + i) % shards.length];
+            List<Event> events = selectByCursor("queue_buffer_sharded", shardConditions.get(shard), cursors.get(shard),
+                    count);
+            if (!events.isEmpty()) {
+                consumeAndDelete(shard, events, consumer);
+                return;
+            }
+        }
+        consumer.accept(List.of());
+    }
+
+    private void consumeAndDelete(int shard, List<Event> events, Consumer<List<Event>> consumer) {
+        consumer.accept(events);
+
+        acknowledgers.get(shard).ack(txManager, events);
+
+        txManager.execute("set local synchronous_commit to off");
+    }
+
+    @Override
+    public long size() {
+        long[] result = new long[1];
+        txManager.executeWithoutTx("select count(*) from queue_buffer_sharded", rs -> {
+            rs.next();
+            result[0] = rs.getLong(1);
+        });
+        return result[0];
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimateSize("queue_buffer_sharded");
+    }
+}
@@ -0,0 +1,202 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+import ai.toloka.engineering.pg_queue_playground.misc.TransactionManager;
+
+/**
+ * Leases a batch instead of holding its row locks: a short transaction stamps the claimed rows of queue_buffer_leased
+ * with leased_until and lease_owner and commits, the consumer runs without any connection, and a second short
+ * transaction deletes the rows which are still leased by this poll. Rows with an expired lease are claimed again, so a
+ * consumer slower than leaseTimeoutMs gets its events redelivered to someone else.
+ */
+public class PgQueueBuffer_9_LeaseWithVisibilityTimeout extends AbstractPgQueueBuffer {
+
+    private final int leaseTimeoutMs;
+    private final ThreadLocal<UUID> leaseOwner = new ThreadLocal<>();
+
+    public PgQueueBuffer_9_LeaseWithVisibilityTimeout(int leaseTimeoutMs) {
+        super(false);
+        this.leaseTimeoutMs = leaseTimeoutMs;
+    }
+
+    @Override
+    public void offer(Event event) {
+        txManager.execute("insert into queue_buffer_leased (payload) values (?)",
+                (TransactionManager.PreparedStatementConsumer) ps -> ps.setBytes(1, event.payload));
+        notifyIfEnabled();
+    }
+
+    @Override
+    public void offerAll(Collection<Event> events) {
+        offerAll("queue_buffer_leased", events);
+    }
+
+    @Override
+    public void copyAll(Iterable<Event> events) {
+        copyAll("queue_buffer_leased", events);
+    }
+
+    @Override
+    public void poll(int count, Consumer<List<Event>> consumer) {
+        UUID owner = UUID.randomUUID();
+        List<Event> events = lease(count, owner);
+
+        try {
+            consumer.accept(events);
+        } catch (CancellationException e) {
+            // the consumer gave the batch back, e.g. its subscription is cancelled, see PgQueueBufferPublisher
+            release(events, owner);
+            return;
+        } catch (RuntimeException e) {
+            logger.error("Unexpected exception while consuming, the lease is released", e);
+            release(events, owner);
+            return;
+        }
+
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            txManager.begin();
+            ack(events, owner);
+            txManager.execute("set local synchronous_commit to off");
+            txManager.commit();
+        } catch (RuntimeException e) {
+            logger.error("Unexpected exception while acknowledging, the events are redelivered", e);
+            txManager.rollbackSafely();
+        }
+    }
+
+    /**
+     * Returns the leased events only once the lease transaction is committed, none if it fails: uncommitted leases
+     * don't exist for other readers, which would claim and process the same events.
+     */
+    private List<Event> lease(int count, UUID owner) {
+        List<Event> leased = new ArrayList<>();
+        leaseOwner.set(owner);
+        try {
+            txManager.begin();
+            pollInner(count, leased::addAll);
+            txManager.commit();
+            return leased;
+        } catch (RuntimeException e) {
+            logger.error("Unexpected exception while leasing", e);
+            txManager.rollbackSafely();
+            return List.of();
+        } finally {
+            leaseOwner.remove();
+        }
+    }
+
+    /**
+     * The consumer runs outside of the poll transaction here, so the batch is filled from the leased events.
+     */
+    @Override
+    public void poll(int count, EventBatch batch, Consumer<EventBatch> consumer) {
+        poll(count, EventBatch.refilling(batch, consumer));
+    }
+
+    @Override
+    protected void pollInner(int count, Consumer<List<Event>> consumer) {
+        List<Event> events = new ArrayList<>();
+        String sql = "with claimed as (" +
+                "select id " +
+                "from queue_buffer_leased " +
+                "where leased_until is null or leased_until < now() " +
+                "order by id " +
+                "for update skip locked " +
+                "limit ?) " +
+                "update queue_buffer_leased q " +
+                "set leased_until = now() + ? * interval '1 millisecond', lease_owner = ? " +
+                "from claimed " +
+                "where q.id = claimed.id " +
+                "returning q.id, q.payload, q.created_at";
+        txManager.execute(sql,
+                ps -> {
+                    ps.setInt(1, count);
+                    ps.setInt(2, leaseTimeoutMs);
+                    ps.setObject(3, leaseOwner.get());
+                },
+                rs -> {
+                    while (rs.next()) {
+                        long id = rs.getLong(1);
+                        byte[] payload = rs.getBytes(2);
+                        Instant createdAt = rs.getTimestamp(3).toInstant();
+                        events.add(new Event(id, payload, createdAt));
+                    }
+                });
+
+        // update ... returning gives no ordering guarantee
+        events.sort(Comparator.comparing(e -> e.id));
+
+        consumer.accept(events);
+
+        // a lost lease only means a redelivery
+        txManager.execute("set local synchronous_commit to off");
+    }
+
+    private void ack(List<Event> events, UUID owner) {
+        long[] ids = events.stream().mapToLong(e -> e.id).toArray();
+        int[] ackedCount = new int[1];
+        String sql = "delete from queue_buffer_leased " +
+                "where id = any(?::bigint[]) and lease_owner = ? " +
+                "returning id";
+        txManager.execute(sql,
+                ps -> {
+                    ps.setArray(1, bigintArray(ps, ids));
+                    ps.setObject(2, owner);
+                },
+                rs -> {
+                    while (rs.next()) {
+                        ackedCount[0] += 1;
+                    }
+                });
+        if (ackedCount[0] < ids.length) {
+            logger.warn("{} of {} events lost their lease before the ack", ids.length - ackedCount[0], ids.length);
+        }
+    }
+
+    private void release(List<Event> events, UUID owner) {
+        if (events.isEmpty()) {
+            return;
+        }
+        long[] ids = events.stream().mapToLong(e -> e.id).toArray();
+        try {
+            txManager.begin();
+            txManager.execute("update queue_buffer_leased " +
+                            "set leased_until = null, lease_owner = null " +
+                            "where id = any(?::bigint[]) and lease_owner = ?",
+                    (TransactionManager.PreparedStatementConsumer) ps -> {
+                        ps.setArray(1, bigintArray(ps, ids));
+                        ps.setObject(2, owner);
+                    });
+            txManager.commit();
+        } catch (RuntimeException e) {
+            logger.error("Unexpected exception while releasing, the lease expires in {} ms", leaseTimeoutMs, e);
+            txManager.rollbackSafely();
+        }
+    }
+
+    @Override
+    public long size() {
+        long[] result = new long[1];
+        txManager.executeWithoutTx("select count(*) from queue_buffer_leased", rs -> {
+            rs.next();
+            result[0] = rs.getLong(1);
+        });
+        return result[0];
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimateSize("queue_buffer_leased");
+    }
+}
@@ -0,0 +1,24 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Condition on the queue rows with its parameters bound to the placeholders, so the statement text stays the same
+ * whatever the values are and one prepared statement serves all of them.
+ */
+public record SqlCondition(String sql, Object... parameters) {
+
+    public static final SqlCondition TRUE = new SqlCondition("true");
+
+    /**
+     * Binds the parameters starting at the index and returns the index of the next placeholder.
+     */
+    int bind(PreparedStatement ps, int index) throws SQLException {
+        for (Object parameter : parameters) {
+            ps.setObject(index, parameter);
+            index += 1;
+        }
+        return index;
+    }
+}
@@ -2,6 +2,7 @@ package ai.toloka.engineering.pg_queue_playground.misc;
 
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -11,26 +12,32 @@ public abstract class AbstractReaderWriter implements Runnable {
     protected static final Logger logger = LogManager.getLogger();
 
     protected final String name;
+    private final ApplicationName applicationName;
 
     protected final TransactionManager txManager;
     private final CyclicBarrier barrier;
 
     private volatile boolean enabled = true;
 
-    private long deltaSum;
-    private long countSum;
-    private long logCount;
+    // recorded by the reader/writer thread, drained by the reporter without locking
+    private final LongAdder deltaSum = new LongAdder();
+    private final LongAdder countSum = new LongAdder();
+    private final LongAdder logCount = new LongAdder();
+    private final LongAdder emptyLogCount = new LongAdder();
 
     protected AbstractReaderWriter(String name,
+                                   ApplicationName applicationName,
                                    TransactionManager txManager,
                                    CyclicBarrier barrier) {
         this.name = name;
+        this.applicationName = applicationName;
         this.txManager = txManager;
         this.barrier = barrier;
     }
 
     @Override
     public void run() {
+        txManager.setApplicationName(applicationName);
         try {
             warmUp();
             barrier.await();
@@ -59,20 +66,24 @@ public abstract class AbstractReaderWriter implements Runnable {
         enabled = false;
     }
 
-    protected synchronized void logStat(long deltaNanos, int count) {
-        deltaSum += deltaNanos;
-        countSum += count;
-        logCount += 1;
+    protected void logStat(long deltaNanos, int count) {
+        deltaSum.add(deltaNanos);
+        countSum.add(count);
+        logCount.increment();
+        if (count == 0) {
+            emptyLogCount.increment();
+        }
     }
 
-    public synchronized Stat getStatAndReset() {
-        var stat = new Stat(deltaSum, countSum, logCount);
-        deltaSum = 0;
-        countSum = 0;
-        logCount = 0;
-        return stat;
+    public Stat getStatAndReset() {
+        return new Stat(
+                deltaSum.sumThenReset(),
+                countSum.sumThenReset(),
+                logCount.sumThenReset(),
+                emptyLogCount.sumThenReset()
+        );
     }
 
-    public record Stat(long deltaSum, long countSum, long logCount) {
+    public record Stat(long deltaSum, long countSum, long logCount, long emptyLogCount) {
     }
 }
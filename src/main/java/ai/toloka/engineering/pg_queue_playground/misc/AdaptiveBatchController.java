@@ -0,0 +1,53 @@
+package ai.toloka.engineering.pg_queue_playground.misc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AIMD controller of the claim batch size of a single reader. A full batch means there is a backlog, so the batch
+ * grows by minBatchSize while the poll latency stays within the target, and it's halved as soon as the latency goes
+ * over the target. Empty polls back off exponentially up to maxBackoffMs.
+ * <p>
+ * With minBatchSize == maxBatchSize and maxBackoffMs == 0 the batch size is fixed and there is no backoff.
+ */
+public class AdaptiveBatchController {
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long latencyTargetNanos;
+    private final int maxBackoffMs;
+
+    private int batchSize;
+    private int backoffMs;
+
+    public AdaptiveBatchController(int minBatchSize, int maxBatchSize, int latencyTargetMs, int maxBackoffMs) {
+        if (maxBatchSize < minBatchSize) {
+            throw new IllegalArgumentException("Max batch size should be greater or equal to min batch size");
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMs);
+        this.maxBackoffMs = maxBackoffMs;
+        this.batchSize = minBatchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Adjusts the batch size by the result of the last poll and returns how long to back off before the next one.
+     */
+    public int onPoll(int count, long latencyNanos) {
+        if (count == 0) {
+            backoffMs = Math.min(Math.max(backoffMs * 2, 1), maxBackoffMs);
+            return backoffMs;
+        }
+        backoffMs = 0;
+        if (latencyNanos > latencyTargetNanos) {
+            batchSize = Math.max(batchSize / 2, minBatchSize);
+        } else if (count >= batchSize) {
+            batchSize = Math.min(batchSize + minBatchSize, maxBatchSize);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,30 @@
+package ai.toloka.engineering.pg_queue_playground.misc;
+
+/**
+ * application_name of the connections by the role of the thread, so pg_stat_activity tells them apart. See
+ * TransactionManager.setApplicationName and WaitEventSampler.
+ */
+public enum ApplicationName {
+    READER("pgqp-reader"),
+    WRITER("pgqp-writer"),
+    /**
+     * The background jobs of a buffer: the pseudo vacuum, the partition rotation.
+     */
+    VACUUM("pgqp-vacuum"),
+    LONG_TX("pgqp-long-tx"),
+    /**
+     * The reporter and the samplers.
+     */
+    MONITOR("pgqp-monitor");
+
+    /**
+     * Of every connection, before the thread sets its role.
+     */
+    public static final String DEFAULT = "pgqp";
+
+    public final String value;
+
+    ApplicationName(String value) {
+        this.value = value;
+    }
+}
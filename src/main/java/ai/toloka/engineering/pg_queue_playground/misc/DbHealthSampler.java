@@ -0,0 +1,138 @@
+package ai.toloka.engineering.pg_queue_playground.misc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Samples the bloat of the queue tables and the xmin horizon which causes it: live and dead tuples, heap and index
+ * sizes from pg_stat_user_tables, and the age of the oldest backend_xmin and transaction from pg_stat_activity. Runs in
+ * the background, because the statistics views are slow to query on a busy server, and the reporter takes the latest
+ * sample. The WAL rate between two samples shows the write amplification of the payload format and of the bloat.
+ * <p>
+ * The xmin horizon is database-wide, so it's the same for every table: a dead tuple can't be removed by vacuum while
+ * it's newer than the horizon.
+ */
+public class DbHealthSampler implements Runnable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final TransactionManager txManager;
+    private final int intervalMs;
+
+    private volatile boolean enabled = true;
+    private volatile Sample latest; // null until the first sample
+
+    // used by the sampler thread only
+    private long lastWalBytes = -1;
+    private long lastWalNs;
+
+    public DbHealthSampler(TransactionManager txManager, int intervalMs) {
+        this.txManager = txManager;
+        this.intervalMs = intervalMs;
+    }
+
+    @Override
+    public void run() {
+        txManager.setApplicationName(ApplicationName.MONITOR);
+        while (enabled) {
+            long startNs = System.nanoTime();
+            try {
+                latest = sample();
+            } catch (RuntimeException e) {
+                logger.error("Unexpected exception while sampling DB health", e);
+            }
+            Util.sleep(intervalMs - Util.elapsedMs(startNs));
+        }
+    }
+
+    public void stop() {
+        enabled = false;
+    }
+
+    public Sample getLatest() {
+        return latest;
+    }
+
+    private Sample sample() {
+        List<TableSample> tables = new ArrayList<>();
+        // partitions of queue_buffer_partitioned are matched as well
+        txManager.executeWithoutTx("select relname, n_live_tup, n_dead_tup, " +
+                "pg_table_size(relid), pg_indexes_size(relid) " +
+                "from pg_stat_user_tables " +
+                "where relname like 'queue\\_buffer%' " +
+                "order by relname", rs -> {
+            while (rs.next()) {
+                tables.add(new TableSample(rs.getString(1), rs.getLong(2), rs.getLong(3), rs.getLong(4),
+                        rs.getLong(5)));
+            }
+        });
+        long[] horizon = new long[3];
+        txManager.executeWithoutTx("select coalesce(max(age(backend_xmin)), 0), " +
+                "coalesce(extract(epoch from max(clock_timestamp() - xact_start)) * 1000, 0)::bigint, " +
+                "(pg_current_wal_lsn() - '0/0')::bigint " +
+                "from pg_stat_activity " +
+                "where datname = current_database() and pid <> pg_backend_pid()", rs -> {
+            rs.next();
+            horizon[0] = rs.getLong(1);
+            horizon[1] = rs.getLong(2);
+            horizon[2] = rs.getLong(3);
+        });
+        long walNs = System.nanoTime();
+        long walBytesPerSec = lastWalBytes >= 0
+                ? Math.round((horizon[2] - lastWalBytes) * 1e9 / (walNs - lastWalNs))
+                : -1;
+        lastWalBytes = horizon[2];
+        lastWalNs = walNs;
+        return new Sample(tables, horizon[0], horizon[1], walBytesPerSec);
+    }
+
+    /**
+     * @param oldestXminAge    in transactions, how far the xmin horizon lags behind the next transaction id
+     * @param oldestXactAgeMs  duration of the oldest open transaction
+     * @param walBytesPerSec   WAL written since the previous sample, -1 in the first sample
+     */
+    public record Sample(List<TableSample> tables, long oldestXminAge, long oldestXactAgeMs, long walBytesPerSec) {
+
+        /**
+         * Totals over all queue tables. A table with no tuples left may still hold bloated heap or index pages, and the
+         * tables of the buffers not under test are truncated, so they add only their empty index pages.
+         */
+        public TableSample total() {
+            long liveTuples = 0;
+            long deadTuples = 0;
+            long heapBytes = 0;
+            long indexBytes = 0;
+            for (TableSample table : tables) {
+                liveTuples += table.liveTuples;
+                deadTuples += table.deadTuples;
+                heapBytes += table.heapBytes;
+                indexBytes += table.indexBytes;
+            }
+            return new TableSample("total", liveTuples, deadTuples, heapBytes, indexBytes);
+        }
+
+        public void putFields(Map<String, Object> fields) {
+            fields.put("oldestXminAge", oldestXminAge);
+            fields.put("oldestXactAgeMs", oldestXactAgeMs);
+            fields.put("walBytesPerSec", walBytesPerSec >= 0 ? walBytesPerSec : null);
+            total().putFields(fields, "");
+            for (TableSample table : tables) {
+                table.putFields(fields, table.name + ".");
+            }
+        }
+    }
+
+    public record TableSample(String name, long liveTuples, long deadTuples, long heapBytes, long indexBytes) {
+
+        void putFields(Map<String, Object> fields, String prefix) {
+            fields.put(prefix + "liveTuples", liveTuples);
+            fields.put(prefix + "deadTuples", deadTuples);
+            fields.put(prefix + "heapBytes", heapBytes);
+            fields.put(prefix + "indexBytes", indexBytes);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ai.toloka.engineering.pg_queue_playground.misc;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ai.toloka.engineering.pg_queue_playground.Event;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Fans out the batches claimed by a few polling readers to many virtual-thread workers through a bounded ring buffer.
+ * A reader waits until every event of its batch is processed and acknowledges the whole batch with its poll
+ * transaction, so processing concurrency doesn't cost database connections.
+ */
+public class Dispatcher implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final int workerCount;
+    private final int eventDelayMs;
+    private final BlockingQueue<Task> tasks;
+    private final ExecutorService workerExecutorService = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Every worker processes one event at a time for eventDelayMs.
+     */
+    public Dispatcher(int workerCount, int eventDelayMs) {
+        this.workerCount = workerCount;
+        this.eventDelayMs = eventDelayMs;
+        this.tasks = new ArrayBlockingQueue<>(workerCount);
+    }
+
+    public void start() {
+        for (int i = 0; i < workerCount; i++) {
+            workerExecutorService.submit(this::runWorker);
+        }
+        logger.info("Dispatcher is started with {} workers", workerCount);
+    }
+
+    private void runWorker() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Task task;
+            try {
+                task = tasks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                Util.sleep(eventDelayMs);
+            } catch (RuntimeException e) {
+                return; // interrupted by close
+            } finally {
+                task.done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Blocks until all events are processed by the workers.
+     */
+    public void dispatch(List<Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        var done = new CountDownLatch(events.size());
+        try {
+            for (Event event : events) {
+                tasks.put(new Task(event, done));
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Must be called after the readers are stopped.
+     */
+    @Override
+    public void close() {
+        workerExecutorService.shutdownNow();
+    }
+
+    private record Task(Event event, CountDownLatch done) {
+    }
+}
@@ -0,0 +1,106 @@
+package ai.toloka.engineering.pg_queue_playground.misc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of nanosecond latencies in the spirit of HdrHistogram: values below 128 have their own buckets,
+ * larger values share a bucket with the values of the same power of two and the same 6 leading bits, so the relative
+ * error is under 1/64. Recording is lock-free and allocates nothing, and the reporter drains the counts concurrently
+ * into a {@link Snapshot}, which can be merged with the others.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_HALF_COUNT = 64;
+    private static final int BUCKET_COUNT = (64 - 6) * SUB_BUCKET_HALF_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public void record(long valueNanos) {
+        long value = Math.max(valueNanos, 0);
+        counts.incrementAndGet(indexOf(value));
+        if (value > maxValue.get()) {
+            maxValue.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Moves the counts recorded so far into the snapshot.
+     */
+    public void drainTo(Snapshot snapshot) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts.get(i) != 0) {
+                snapshot.counts[i] += counts.getAndSet(i, 0);
+            }
+        }
+        snapshot.maxValue = Math.max(snapshot.maxValue, maxValue.getAndSet(0));
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKET_HALF_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6; // value >>> shift is in [64, 128)
+        return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+    }
+
+    static long highestValueOf(int index) {
+        if (index < 2 * SUB_BUCKET_HALF_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        if (Long.numberOfLeadingZeros(subBucket + 1) <= shift) {
+            return Long.MAX_VALUE; // the top bucket, its end would overflow
+        }
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Not thread-safe, owned by the reporter.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts = new long[BUCKET_COUNT];
+        private long maxValue;
+
+        public void merge(Snapshot other) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] += other.counts[i];
+            }
+            maxValue = Math.max(maxValue, other.maxValue);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            return count;
+        }
+
+        public long getMaxNanos() {
+            return maxValue;
+        }
+
+        /**
+         * Returns the highest value of the bucket holding the percentile, but not more than the max value.
+         */
+        public long getPercentileNanos(double percentile) {
+            long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), maxValue);
+                }
+            }
+            return maxValue;
+        }
+    }
+}
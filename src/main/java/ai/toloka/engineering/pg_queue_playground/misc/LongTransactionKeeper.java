@@ -19,6 +19,7 @@ public class LongTransactionKeeper implements Runnable {
 
     @Override
     public void run() {
+        txManager.setApplicationName(ApplicationName.LONG_TX);
         txManager.begin();
         txManager.execute("select txid_current()", ResultSet::next);
         logger.info("Long transaction is started");
@@ -0,0 +1,103 @@
+package ai.toloka.engineering.pg_queue_playground.misc;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Holds a single dedicated LISTEN connection and wakes up readers waiting for new events. Each received batch of
+ * notifications bumps a generation counter, so a reader that remembers the generation before its poll doesn't miss
+ * a notification which arrived while it was polling.
+ */
+public class NotificationListener implements Runnable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int RECEIVE_TIMEOUT_MS = 100;
+
+    private final DataSource dataSource;
+    private final String channel;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notified = lock.newCondition();
+
+    private volatile long generation;
+    private volatile boolean enabled = true;
+
+    public NotificationListener(DataSource dataSource, String channel) {
+        this.dataSource = dataSource;
+        this.channel = channel;
+    }
+
+    @Override
+    public void run() {
+        Connection connection = null;
+        Statement statement = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(true);
+            statement = connection.createStatement();
+            statement.execute("listen " + channel);
+            logger.info("Listening to the channel {}", channel);
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            while (enabled) {
+                PGNotification[] notifications = pgConnection.getNotifications(RECEIVE_TIMEOUT_MS);
+                if (notifications != null && notifications.length > 0) {
+                    signal();
+                }
+            }
+            statement.execute("unlisten " + channel);
+        } catch (Exception e) {
+            logger.error("Unexpected exception in notification listener", e);
+        } finally {
+            TransactionManager.closeSafely(statement);
+            TransactionManager.closeSafely(connection);
+            signal(); // don't keep readers waiting for a listener which is gone
+        }
+    }
+
+    public void stop() {
+        enabled = false;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Blocks until a notification newer than the given generation arrives or the timeout elapses.
+     */
+    public void await(long sinceGeneration, long timeoutMs) {
+        lock.lock();
+        try {
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (generation == sinceGeneration && remainingNanos > 0) {
+                remainingNanos = notified.awaitNanos(remainingNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            generation += 1;
+            notified.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
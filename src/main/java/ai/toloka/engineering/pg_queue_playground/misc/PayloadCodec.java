@@ -0,0 +1,85 @@
+package ai.toloka.engineering.pg_queue_playground.misc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Client-side compression of the payloads from compressionThresholdBytes up, with raw Deflate at its fastest level.
+ * The first byte of an encoded payload tells whether the rest is compressed, so a payload which doesn't shrink is
+ * stored as is. Unlike the TOAST compression, which starts at about 2 kB on the server, this also shrinks the smaller
+ * payloads and the network traffic.
+ * <p>
+ * Not thread-safe, every reader and writer has its own codec.
+ */
+public class PayloadCodec {
+
+    private static final byte RAW = 0;
+    private static final byte DEFLATE = 1;
+
+    private final int compressionThresholdBytes;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final Inflater inflater = new Inflater(true);
+
+    private byte[] decoded = new byte[1_024];
+
+    public PayloadCodec(int compressionThresholdBytes) {
+        this.compressionThresholdBytes = compressionThresholdBytes;
+    }
+
+    public byte[] encode(byte[] payload) {
+        // an empty payload can't shrink, and there's no room for the header in the buffer below
+        if (payload.length > 0 && payload.length >= compressionThresholdBytes) {
+            deflater.reset();
+            deflater.setInput(payload);
+            deflater.finish();
+            byte[] encoded = new byte[payload.length]; // not shorter than the raw payload otherwise
+            encoded[0] = DEFLATE;
+            int length = 1;
+            while (!deflater.finished() && length < encoded.length) {
+                length += deflater.deflate(encoded, length, encoded.length - length);
+            }
+            if (deflater.finished()) {
+                return Arrays.copyOf(encoded, length);
+            }
+        }
+        byte[] encoded = new byte[payload.length + 1];
+        encoded[0] = RAW;
+        System.arraycopy(payload, 0, encoded, 1, payload.length);
+        return encoded;
+    }
+
+    /**
+     * Returns a view of the decoded payload, valid until the next call.
+     */
+    public ByteBuffer decode(ByteBuffer encoded) {
+        byte codec = encoded.get(encoded.position());
+        ByteBuffer body = encoded.slice(encoded.position() + 1, encoded.remaining() - 1);
+        if (codec == RAW) {
+            return body;
+        }
+        if (codec != DEFLATE) {
+            throw new IllegalArgumentException("Unknown payload codec " + codec);
+        }
+        inflater.reset();
+        inflater.setInput(body);
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == decoded.length) {
+                    decoded = Arrays.copyOf(decoded, decoded.length * 2);
+                }
+                int n = inflater.inflate(decoded, length, decoded.length - length);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IllegalArgumentException("Truncated payload");
+                }
+                length += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted payload", e);
+        }
+        return ByteBuffer.wrap(decoded, 0, length).asReadOnlyBuffer();
+    }
+}
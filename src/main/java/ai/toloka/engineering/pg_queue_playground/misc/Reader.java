@@ -1,7 +1,15 @@
 package ai.toloka.engineering.pg_queue_playground.misc;
 
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.concurrent.CyclicBarrier;
+import java.util.function.Supplier;
 
+import ai.toloka.engineering.pg_queue_playground.Event;
+import ai.toloka.engineering.pg_queue_playground.EventBatch;
 import ai.toloka.engineering.pg_queue_playground.PgQueueBuffer;
 
 public class Reader extends AbstractReaderWriter {
@@ -9,39 +17,157 @@ public class Reader extends AbstractReaderWriter {
     private static int counter = 1;
 
     private final PgQueueBuffer buffer;
+    private final NotificationListener notificationListener; // null if notifications are disabled
+    private final Dispatcher dispatcher; // null if readers process events themselves
+
+    private final AdaptiveBatchController batchController;
+    private final EventBatch eventBatch; // null if the reader polls lists of events
+    private final PayloadCodec payloadCodec; // null if payloads aren't compressed
+    private final LatencyHistogram pollHistogram = new LatencyHistogram();
+    private final LatencyHistogram eventAgeHistogram = new LatencyHistogram();
 
     private final int innerDelayMs;
-    private final int batchSize;
     private final int syncReplicaDelayMs;
+    private final int notifyTimeoutMs;
 
     public Reader(PgQueueBuffer buffer,
                   TransactionManager txManager,
                   CyclicBarrier barrier,
+                  NotificationListener notificationListener,
+                  Dispatcher dispatcher,
+                  AdaptiveBatchController batchController,
+                  boolean columnarPollEnabled,
+                  PayloadCodec payloadCodec,
                   int innerDelayMs,
-                  int batchSize,
                   boolean syncCommitEnabled,
-                  int syncReplicaDelayMs) {
-        super("reader-" + counter, txManager, barrier);
+                  int syncReplicaDelayMs,
+                  int notifyTimeoutMs) {
+        super("reader-" + counter, ApplicationName.READER, txManager, barrier);
 
         this.buffer = buffer;
+        this.notificationListener = notificationListener;
+        this.dispatcher = dispatcher;
+        this.batchController = batchController;
+        this.eventBatch = columnarPollEnabled ? new EventBatch() : null;
+        this.payloadCodec = payloadCodec;
 
         this.innerDelayMs = innerDelayMs;
-        this.batchSize = batchSize;
         this.syncReplicaDelayMs = syncCommitEnabled ? syncReplicaDelayMs : 0;
+        this.notifyTimeoutMs = notifyTimeoutMs;
 
         counter += 1;
     }
 
+    /**
+     * Poll overhead, i.e. without the processing and the sync replica delay.
+     */
+    public LatencyHistogram getPollHistogram() {
+        return pollHistogram;
+    }
+
+    /**
+     * Time from the insert of an event to its consumption.
+     */
+    public LatencyHistogram getEventAgeHistogram() {
+        return eventAgeHistogram;
+    }
+
+    @Override
+    public void run() {
+        buffer.registerReader(name);
+        try {
+            super.run();
+        } finally {
+            buffer.unregisterReader(name);
+        }
+    }
+
     @Override
     protected void runInner() {
+        long generation = notificationListener != null ? notificationListener.getGeneration() : 0;
         int[] count = new int[1];
-        long deltaNanos = Util.timed(() -> buffer.poll(batchSize, events -> {
-            count[0] = events.size();
+        long[] processingNanos = new long[]{innerDelayMs * 1_000_000L};
+        int batchSize = batchController.getBatchSize();
+        long deltaNanos = Util.timed(() -> {
+            if (eventBatch != null) {
+                buffer.poll(batchSize, eventBatch, batch -> {
+                    count[0] = batch.size();
+                    recordEventAges(batch);
+                    decodePayloads(batch);
+                    processingNanos[0] = process(batch.size(), batch::toEvents);
+                });
+            } else {
+                buffer.poll(batchSize, events -> {
+                    count[0] = events.size();
+                    recordEventAges(events);
+                    decodePayloads(events);
+                    processingNanos[0] = process(events.size(), () -> events);
+                });
+            }
+        });
+        long overheadNanos = deltaNanos - processingNanos[0] - syncReplicaDelayMs * 1_000_000L;
+        logStat(overheadNanos, count[0]);
+        pollHistogram.record(overheadNanos);
+
+        int backoffMs = batchController.onPoll(count[0], overheadNanos);
+        if (count[0] == 0 && notificationListener != null) {
+            notificationListener.await(generation, notifyTimeoutMs);
+        } else {
+            Util.sleep(backoffMs);
+        }
+    }
+
+    /**
+     * Returns the processing time. The dispatcher takes events, so a batch is materialized only for it.
+     */
+    private long process(int count, Supplier<List<Event>> events) {
+        long processingNanos = innerDelayMs * 1_000_000L;
+        if (dispatcher != null) {
+            processingNanos = Util.timed(() -> dispatcher.dispatch(events.get()));
+        } else {
             Util.sleep(innerDelayMs);
-            if (count[0] == 0 && syncReplicaDelayMs > 0) {
-                Util.sleep(syncReplicaDelayMs); // compensate real delay missing
+        }
+        if (count == 0 && syncReplicaDelayMs > 0) {
+            Util.sleep(syncReplicaDelayMs); // compensate real delay missing
+        }
+        return processingNanos;
+    }
+
+    /**
+     * Only to count the decompression in the poll overhead, the payloads aren't processed.
+     */
+    private void decodePayloads(EventBatch batch) {
+        if (payloadCodec != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                payloadCodec.decode(batch.getPayloadBuffer(i));
+            }
+        }
+    }
+
+    private void decodePayloads(List<Event> events) {
+        if (payloadCodec != null) {
+            for (Event event : events) {
+                payloadCodec.decode(ByteBuffer.wrap(event.payload));
+            }
+        }
+    }
+
+    private void recordEventAges(EventBatch batch) {
+        long nowMicros = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+        for (int i = 0; i < batch.size(); i++) {
+            long createdAtMicros = batch.getCreatedAtEpochMicros(i);
+            if (createdAtMicros != EventBatch.UNKNOWN_CREATED_AT) {
+                eventAgeHistogram.record((nowMicros - createdAtMicros) * 1_000);
+            }
+        }
+    }
+
+    private void recordEventAges(List<Event> events) {
+        Instant now = Instant.now();
+        for (Event event : events) {
+            if (event.createdAt != null) {
+                eventAgeHistogram.record(Duration.between(event.createdAt, now).toNanos());
             }
-        }));
-        logStat(deltaNanos - (innerDelayMs + syncReplicaDelayMs) * 1_000_000L, count[0]);
+        }
     }
 }
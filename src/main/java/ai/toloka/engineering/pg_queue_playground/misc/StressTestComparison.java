@@ -0,0 +1,214 @@
+package ai.toloka.engineering.pg_queue_playground.misc;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Prints a summary table of the runs written by {@link StressTestResultWriter} and flags the runs which regressed
+ * against the baseline run with the same run name: a throughput drop or a p99 latency increase of more than the
+ * threshold percent.
+ * <p>
+ * Usage: {@code [--baseline result.jsonl]... [--threshold pct] result.jsonl...}
+ */
+public class StressTestComparison {
+
+    private static final String USAGE = "Usage: [--baseline result.jsonl]... [--threshold pct] result.jsonl...";
+
+    private static final Pattern FIELD = Pattern.compile(
+            "\"((?:[^\"\\\\]|\\\\.)*)\"\\s*:\\s*(\"(?:[^\"\\\\]|\\\\.)*\"|[^,}]+)");
+
+    public static void main(String[] args) throws IOException {
+        System.exit(compare(args, System.out, System.err));
+    }
+
+    /**
+     * Returns the exit status: 0 when no run regressed, 1 when some did and 2 on a wrong usage.
+     */
+    static int compare(String[] args, PrintStream out, PrintStream err) throws IOException {
+        List<Path> baselineFiles = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        double thresholdPct = 10;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ((arg.equals("--baseline") || arg.equals("--threshold")) && i + 1 == args.length) {
+                return usage(err, arg + " needs a value");
+            }
+            switch (arg) {
+                case "--baseline" -> baselineFiles.add(Path.of(args[++i]));
+                case "--threshold" -> {
+                    try {
+                        thresholdPct = Double.parseDouble(args[++i]);
+                    } catch (NumberFormatException e) {
+                        return usage(err, "Wrong threshold " + args[i]);
+                    }
+                    if (!Double.isFinite(thresholdPct)) {
+                        return usage(err, "Wrong threshold " + args[i]);
+                    }
+                }
+                default -> files.add(Path.of(arg));
+            }
+        }
+        if (files.isEmpty()) {
+            return usage(err, "No result files");
+        }
+
+        Map<String, Run> baselines = new HashMap<>();
+        for (Path file : baselineFiles) {
+            Run run = Run.read(file);
+            baselines.put(run.name, run);
+        }
+
+        out.printf("%-40s %12s %12s %10s %12s %12s %12s%n",
+                "run", "write/s", "read/s", "size", "poll p99 ms", "age p99 ms", "age max ms");
+        List<String> regressions = new ArrayList<>();
+        for (Path file : files) {
+            Run run = Run.read(file);
+            out.printf("%-40s %12.0f %12.0f %10.0f %12.2f %12.2f %12.2f%n",
+                    run.name, run.avgWriteThroughput, run.avgReadThroughput, run.finalSize,
+                    run.pollP99Ms, run.eventAgeP99Ms, run.eventAgeMaxMs);
+            Run baseline = baselines.get(run.name);
+            if (baseline != null) {
+                regressions.addAll(run.compareTo(baseline, thresholdPct));
+            }
+        }
+
+        if (regressions.isEmpty()) {
+            return 0;
+        }
+        out.println();
+        out.println("Regressions over " + thresholdPct + "%:");
+        regressions.forEach(regression -> out.println("  " + regression));
+        return 1;
+    }
+
+    private static int usage(PrintStream err, String problem) {
+        err.println(problem);
+        err.println(USAGE);
+        return 2;
+    }
+
+    static Map<String, String> parseLine(String line) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        Matcher matcher = FIELD.matcher(line);
+        while (matcher.find()) {
+            String value = matcher.group(2).trim();
+            if (value.startsWith("\"")) {
+                value = unescape(value.substring(1, value.length() - 1));
+            }
+            fields.put(unescape(matcher.group(1)), value);
+        }
+        return fields;
+    }
+
+    /**
+     * Reverses the escaping of {@link StressTestResultWriter}.
+     */
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                result.append(c);
+                continue;
+            }
+            i += 1;
+            switch (value.charAt(i)) {
+                case 'n' -> result.append('\n');
+                case 'r' -> result.append('\r');
+                case 't' -> result.append('\t');
+                case 'b' -> result.append('\b');
+                case 'f' -> result.append('\f');
+                case 'u' -> {
+                    result.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                    i += 4;
+                }
+                default -> result.append(value.charAt(i)); // \" \\ and \/
+            }
+        }
+        return result.toString();
+    }
+
+    private record Run(String name, double avgWriteThroughput, double avgReadThroughput, double finalSize,
+                       double pollP99Ms, double eventAgeP99Ms, double eventAgeMaxMs) {
+
+        static Run read(Path file) throws IOException {
+            String name = file.getFileName().toString();
+            double writeSum = 0;
+            double readSum = 0;
+            int sampleCount = 0;
+            double finalSize = Double.NaN;
+            Map<String, String> summary = Map.of();
+            for (String line : Files.readAllLines(file)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                Map<String, String> fields = parseLine(line);
+                switch (fields.getOrDefault("type", "")) {
+                    case "config" -> name = fields.getOrDefault("runName", name);
+                    case "sample" -> {
+                        writeSum += number(fields, "writeThroughput");
+                        readSum += number(fields, "readThroughput");
+                        finalSize = number(fields, "size");
+                        sampleCount++;
+                    }
+                    case "summary" -> summary = fields;
+                    default -> {
+                    }
+                }
+            }
+            return new Run(name,
+                    sampleCount == 0 ? Double.NaN : writeSum / sampleCount,
+                    sampleCount == 0 ? Double.NaN : readSum / sampleCount,
+                    finalSize,
+                    number(summary, "pollP99Ms"),
+                    number(summary, "eventAgeP99Ms"),
+                    number(summary, "eventAgeMaxMs"));
+        }
+
+        List<String> compareTo(Run baseline, double thresholdPct) {
+            List<String> regressions = new ArrayList<>();
+            if (changePct(baseline.avgWriteThroughput, avgWriteThroughput) < -thresholdPct) {
+                regressions.add(describe("write/s", baseline.avgWriteThroughput, avgWriteThroughput));
+            }
+            if (changePct(baseline.avgReadThroughput, avgReadThroughput) < -thresholdPct) {
+                regressions.add(describe("read/s", baseline.avgReadThroughput, avgReadThroughput));
+            }
+            if (changePct(baseline.pollP99Ms, pollP99Ms) > thresholdPct) {
+                regressions.add(describe("poll p99 ms", baseline.pollP99Ms, pollP99Ms));
+            }
+            if (changePct(baseline.eventAgeP99Ms, eventAgeP99Ms) > thresholdPct) {
+                regressions.add(describe("age p99 ms", baseline.eventAgeP99Ms, eventAgeP99Ms));
+            }
+            return regressions;
+        }
+
+        private String describe(String metric, double baselineValue, double value) {
+            return String.format("%s %s: %.2f -> %.2f (%+.1f%%)",
+                    name, metric, baselineValue, value, changePct(baselineValue, value));
+        }
+
+        private static double changePct(double baselineValue, double value) {
+            if (Double.isNaN(baselineValue) || Double.isNaN(value) || baselineValue == 0) {
+                return 0;
+            }
+            return (value - baselineValue) / baselineValue * 100;
+        }
+
+        private static double number(Map<String, String> fields, String name) {
+            String value = fields.get(name);
+            return value == null || value.equals("null") ? Double.NaN : Double.parseDouble(value);
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package ai.toloka.engineering.pg_queue_playground.misc;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ai.toloka.engineering.pg_queue_playground.GroupCommitPgQueueBuffer;
 import ai.toloka.engineering.pg_queue_playground.PgQueueBuffer;
 import ai.toloka.engineering.pg_queue_playground.PgQueueBuffer_1_SelectForUpdate;
 
@@ -8,11 +12,32 @@ public final class StressTestConfig {
     public final PgQueueBuffer buffer;
     public final int writerCount;
     public final int writerInnerDelayMs;
+    public final WriterMode writerMode;
+    public final int writerBatchSize;
+    public final PayloadFormat writerPayloadFormat;
+    public final PayloadSizeDistribution writerPayloadSizeDistribution;
+    public final int writerPayloadSizeBytes;
+    public final int payloadCompressionThresholdBytes;
     public final int readerCount;
     public final int readerInnerDelayMs;
     public final int readerBatchSize;
+    public final int readerMaxBatchSize;
+    public final int readerLatencyTargetMs;
+    public final int readerMaxBackoffMs;
+    public final boolean readerColumnarPollEnabled;
+    public final int dispatcherWorkerCount;
+    public final boolean notifyEnabled;
+    public final int readerNotifyTimeoutMs;
     public final int durationMs;
     public final boolean longTxEnabled;
+    public final int statementCacheSize;
+    public final boolean binaryTransferForced;
+    public final int dbHealthSampleIntervalMs;
+    public final int waitEventSampleIntervalMs;
+    public final SizeMode sizeMode;
+    public final int exactSizeRecountIntervalMs;
+    public final String runName;
+    public final String resultsDir;
 
     public final String host;
     public final int port;
@@ -29,25 +54,70 @@ public final class StressTestConfig {
     public StressTestConfig(PgQueueBuffer buffer,
                             int writerCount,
                             int writerInnerDelayMs,
+                            WriterMode writerMode,
+                            int writerBatchSize,
+                            PayloadFormat writerPayloadFormat,
+                            PayloadSizeDistribution writerPayloadSizeDistribution,
+                            int writerPayloadSizeBytes,
+                            int payloadCompressionThresholdBytes,
                             int readerCount,
                             int readerInnerDelayMs,
                             int readerBatchSize,
+                            int readerMaxBatchSize,
+                            int readerLatencyTargetMs,
+                            int readerMaxBackoffMs,
+                            boolean readerColumnarPollEnabled,
+                            int dispatcherWorkerCount,
+                            boolean notifyEnabled,
+                            int readerNotifyTimeoutMs,
                             int durationSec,
                             boolean longTxEnabled,
+                            int statementCacheSize,
+                            boolean binaryTransferForced,
+                            int dbHealthSampleIntervalMs,
+                            int waitEventSampleIntervalMs,
+                            SizeMode sizeMode,
+                            int exactSizeRecountIntervalSec,
+                            String runName,
+                            String resultsDir,
                             String host,
                             int port,
                             String db,
                             String username,
                             String password,
                             int maxPoolSize) {
+        if (writerMode == WriterMode.GROUP_COMMIT && !(buffer instanceof GroupCommitPgQueueBuffer)) {
+            throw new IllegalArgumentException("Writer mode " + writerMode + " requires GroupCommitPgQueueBuffer");
+        }
         this.buffer = buffer;
         this.writerCount = writerCount;
         this.writerInnerDelayMs = writerInnerDelayMs;
+        this.writerMode = writerMode;
+        this.writerBatchSize = writerBatchSize;
+        this.writerPayloadFormat = writerPayloadFormat;
+        this.writerPayloadSizeDistribution = writerPayloadSizeDistribution;
+        this.writerPayloadSizeBytes = writerPayloadSizeBytes;
+        this.payloadCompressionThresholdBytes = payloadCompressionThresholdBytes;
         this.readerCount = readerCount;
         this.readerInnerDelayMs = readerInnerDelayMs;
         this.readerBatchSize = readerBatchSize;
+        this.readerMaxBatchSize = readerMaxBatchSize;
+        this.readerLatencyTargetMs = readerLatencyTargetMs;
+        this.readerMaxBackoffMs = readerMaxBackoffMs;
+        this.readerColumnarPollEnabled = readerColumnarPollEnabled;
+        this.dispatcherWorkerCount = dispatcherWorkerCount;
+        this.notifyEnabled = notifyEnabled;
+        this.readerNotifyTimeoutMs = readerNotifyTimeoutMs;
         this.durationMs = durationSec * 1_000;
         this.longTxEnabled = longTxEnabled;
+        this.statementCacheSize = statementCacheSize;
+        this.binaryTransferForced = binaryTransferForced;
+        this.dbHealthSampleIntervalMs = dbHealthSampleIntervalMs;
+        this.waitEventSampleIntervalMs = waitEventSampleIntervalMs;
+        this.sizeMode = sizeMode;
+        this.exactSizeRecountIntervalMs = exactSizeRecountIntervalSec * 1_000;
+        this.runName = runName;
+        this.resultsDir = resultsDir;
 
         this.host = host;
         this.port = port;
@@ -67,11 +137,32 @@ public final class StressTestConfig {
                 "buffer=" + buffer +
                 ", writerCount=" + writerCount +
                 ", writerInnerDelayMs=" + writerInnerDelayMs +
+                ", writerMode=" + writerMode +
+                ", writerBatchSize=" + writerBatchSize +
+                ", writerPayloadFormat=" + writerPayloadFormat +
+                ", writerPayloadSizeDistribution=" + writerPayloadSizeDistribution +
+                ", writerPayloadSizeBytes=" + writerPayloadSizeBytes +
+                ", payloadCompressionThresholdBytes=" + payloadCompressionThresholdBytes +
                 ", readerCount=" + readerCount +
                 ", readerInnerDelayMs=" + readerInnerDelayMs +
                 ", readerBatchSize=" + readerBatchSize +
+                ", readerMaxBatchSize=" + readerMaxBatchSize +
+                ", readerLatencyTargetMs=" + readerLatencyTargetMs +
+                ", readerMaxBackoffMs=" + readerMaxBackoffMs +
+                ", readerColumnarPollEnabled=" + readerColumnarPollEnabled +
+                ", dispatcherWorkerCount=" + dispatcherWorkerCount +
+                ", notifyEnabled=" + notifyEnabled +
+                ", readerNotifyTimeoutMs=" + readerNotifyTimeoutMs +
                 ", durationMs=" + durationMs +
                 ", longTxEnabled=" + longTxEnabled +
+                ", statementCacheSize=" + statementCacheSize +
+                ", binaryTransferForced=" + binaryTransferForced +
+                ", dbHealthSampleIntervalMs=" + dbHealthSampleIntervalMs +
+                ", waitEventSampleIntervalMs=" + waitEventSampleIntervalMs +
+                ", sizeMode=" + sizeMode +
+                ", exactSizeRecountIntervalMs=" + exactSizeRecountIntervalMs +
+                ", runName='" + runName + '\'' +
+                ", resultsDir='" + resultsDir + '\'' +
                 ", host='" + host + '\'' +
                 ", port=" + port +
                 ", db='" + db + '\'' +
@@ -82,17 +173,80 @@ public final class StressTestConfig {
                 '}';
     }
 
+    /**
+     * Everything but the credentials, for the structured results.
+     */
+    public Map<String, Object> toResultFields() {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("runName", runName);
+        fields.put("buffer", buffer.toString());
+        fields.put("bufferClass", buffer.getClass().getSimpleName());
+        fields.put("writerCount", writerCount);
+        fields.put("writerInnerDelayMs", writerInnerDelayMs);
+        fields.put("writerMode", writerMode);
+        fields.put("writerBatchSize", writerBatchSize);
+        fields.put("writerPayloadFormat", writerPayloadFormat);
+        fields.put("writerPayloadSizeDistribution", writerPayloadSizeDistribution);
+        fields.put("writerPayloadSizeBytes", writerPayloadSizeBytes);
+        fields.put("payloadCompressionThresholdBytes", payloadCompressionThresholdBytes);
+        fields.put("readerCount", readerCount);
+        fields.put("readerInnerDelayMs", readerInnerDelayMs);
+        fields.put("readerBatchSize", readerBatchSize);
+        fields.put("readerMaxBatchSize", readerMaxBatchSize);
+        fields.put("readerLatencyTargetMs", readerLatencyTargetMs);
+        fields.put("readerMaxBackoffMs", readerMaxBackoffMs);
+        fields.put("readerColumnarPollEnabled", readerColumnarPollEnabled);
+        fields.put("dispatcherWorkerCount", dispatcherWorkerCount);
+        fields.put("notifyEnabled", notifyEnabled);
+        fields.put("readerNotifyTimeoutMs", readerNotifyTimeoutMs);
+        fields.put("durationMs", durationMs);
+        fields.put("longTxEnabled", longTxEnabled);
+        fields.put("statementCacheSize", statementCacheSize);
+        fields.put("binaryTransferForced", binaryTransferForced);
+        fields.put("dbHealthSampleIntervalMs", dbHealthSampleIntervalMs);
+        fields.put("waitEventSampleIntervalMs", waitEventSampleIntervalMs);
+        fields.put("sizeMode", sizeMode);
+        fields.put("exactSizeRecountIntervalMs", exactSizeRecountIntervalMs);
+        fields.put("host", host);
+        fields.put("port", port);
+        fields.put("db", db);
+        fields.put("maxPoolSize", maxPoolSize);
+        fields.put("syncReplicaDelayMs", syncReplicaDelayMs);
+        return fields;
+    }
+
     @SuppressWarnings("unused")
     public static final class Builder {
 
         private PgQueueBuffer buffer = new PgQueueBuffer_1_SelectForUpdate();
         private int writerCount = 70;
         private int writerInnerDelayMs = 10;
+        private WriterMode writerMode = WriterMode.OFFER;
+        private int writerBatchSize = 100; // events per writer transaction, ignored by WriterMode.OFFER
+        private PayloadFormat writerPayloadFormat = PayloadFormat.UUID;
+        private PayloadSizeDistribution writerPayloadSizeDistribution = PayloadSizeDistribution.FIXED;
+        private int writerPayloadSizeBytes = 256; // ignored by PayloadFormat.UUID
+        private int payloadCompressionThresholdBytes = 0;
         private int readerCount = 5;
         private int readerInnerDelayMs = 50;
         private int readerBatchSize = 40;
+        private int readerMaxBatchSize = -1; // see AdaptiveBatchController
+        private int readerLatencyTargetMs = 50;
+        private int readerMaxBackoffMs = 0;
+        private boolean readerColumnarPollEnabled = false;
+        private int dispatcherWorkerCount = 0;
+        private boolean notifyEnabled = false;
+        private int readerNotifyTimeoutMs = 1_000;
         private int durationSec = 300;
         private boolean longTxEnabled = true;
+        private int statementCacheSize = 0;
+        private boolean binaryTransferForced = false;
+        private int dbHealthSampleIntervalMs = 1_000;
+        private int waitEventSampleIntervalMs = 100;
+        private SizeMode sizeMode = SizeMode.EXACT;
+        private int exactSizeRecountIntervalSec = 10; // ignored by SizeMode.EXACT
+        private String runName = null; // buffer class name by default
+        private String resultsDir = "build/stress-results";
 
         private String host = "localhost";
         private int port = 5432; // see pg-configs/primary/postgresql.conf (port)
@@ -106,11 +260,32 @@ public final class StressTestConfig {
                     buffer,
                     writerCount,
                     writerInnerDelayMs,
+                    writerMode,
+                    writerBatchSize,
+                    writerPayloadFormat,
+                    writerPayloadSizeDistribution,
+                    writerPayloadSizeBytes,
+                    payloadCompressionThresholdBytes,
                     readerCount,
                     readerInnerDelayMs,
                     readerBatchSize,
+                    readerMaxBatchSize > 0 ? readerMaxBatchSize : readerBatchSize,
+                    readerLatencyTargetMs,
+                    readerMaxBackoffMs,
+                    readerColumnarPollEnabled,
+                    dispatcherWorkerCount,
+                    notifyEnabled,
+                    readerNotifyTimeoutMs,
                     durationSec,
                     longTxEnabled,
+                    statementCacheSize,
+                    binaryTransferForced,
+                    dbHealthSampleIntervalMs,
+                    waitEventSampleIntervalMs,
+                    sizeMode,
+                    exactSizeRecountIntervalSec,
+                    runName != null ? runName : buffer.getClass().getSimpleName(),
+                    resultsDir,
                     host,
                     port,
                     db,
@@ -118,7 +293,10 @@ public final class StressTestConfig {
                     password,
                     connectionPoolMaxSize > 0
                             ? connectionPoolMaxSize
-                            : writerCount + readerCount
+                            : writerCount + readerCount + (notifyEnabled ? 1 : 0)
+                                    + (buffer instanceof GroupCommitPgQueueBuffer ? 1 : 0)
+                                    + (dbHealthSampleIntervalMs > 0 ? 1 : 0)
+                                    + (waitEventSampleIntervalMs > 0 ? 1 : 0)
             );
         }
 
@@ -137,6 +315,43 @@ public final class StressTestConfig {
             return this;
         }
 
+        public Builder setWriterMode(WriterMode writerMode) {
+            this.writerMode = writerMode;
+            return this;
+        }
+
+        public Builder setWriterBatchSize(int writerBatchSize) {
+            this.writerBatchSize = writerBatchSize;
+            return this;
+        }
+
+        public Builder setWriterPayloadFormat(PayloadFormat writerPayloadFormat) {
+            this.writerPayloadFormat = writerPayloadFormat;
+            return this;
+        }
+
+        public Builder setWriterPayloadSizeDistribution(PayloadSizeDistribution writerPayloadSizeDistribution) {
+            this.writerPayloadSizeDistribution = writerPayloadSizeDistribution;
+            return this;
+        }
+
+        /**
+         * Mean size of the binary records, see PayloadGenerator.
+         */
+        public Builder setWriterPayloadSizeBytes(int writerPayloadSizeBytes) {
+            this.writerPayloadSizeBytes = writerPayloadSizeBytes;
+            return this;
+        }
+
+        /**
+         * Writers compress the payloads from this size up and readers decompress them, see PayloadCodec. Zero
+         * disables the compression and the one-byte codec header with it.
+         */
+        public Builder setPayloadCompressionThresholdBytes(int payloadCompressionThresholdBytes) {
+            this.payloadCompressionThresholdBytes = payloadCompressionThresholdBytes;
+            return this;
+        }
+
         public Builder setReaderCount(int readerCount) {
             this.readerCount = readerCount;
             return this;
@@ -152,6 +367,63 @@ public final class StressTestConfig {
             return this;
         }
 
+        /**
+         * Readers grow their batch from readerBatchSize up to this size while there is a backlog and the poll
+         * overhead stays within readerLatencyTargetMs. Default is readerBatchSize, i.e. a fixed batch size.
+         */
+        public Builder setReaderMaxBatchSize(int readerMaxBatchSize) {
+            this.readerMaxBatchSize = readerMaxBatchSize;
+            return this;
+        }
+
+        public Builder setReaderLatencyTargetMs(int readerLatencyTargetMs) {
+            this.readerLatencyTargetMs = readerLatencyTargetMs;
+            return this;
+        }
+
+        /**
+         * Upper bound of the exponential backoff after empty polls, zero disables the backoff. Not used when
+         * notifications are enabled.
+         */
+        public Builder setReaderMaxBackoffMs(int readerMaxBackoffMs) {
+            this.readerMaxBackoffMs = readerMaxBackoffMs;
+            return this;
+        }
+
+        /**
+         * Readers poll into a reused EventBatch instead of lists of events, see PgQueueBuffer.poll.
+         */
+        public Builder setReaderColumnarPollEnabled(boolean readerColumnarPollEnabled) {
+            this.readerColumnarPollEnabled = readerColumnarPollEnabled;
+            return this;
+        }
+
+        /**
+         * When positive, readers only claim batches and hand the events over to this many workers, each of them
+         * processes one event at a time for readerInnerDelayMs. Zero means readers process their batches themselves
+         * for readerInnerDelayMs per batch.
+         */
+        public Builder setDispatcherWorkerCount(int dispatcherWorkerCount) {
+            this.dispatcherWorkerCount = dispatcherWorkerCount;
+            return this;
+        }
+
+        /**
+         * Writers NOTIFY on commit and readers wait for a notification after an empty poll instead of polling again.
+         */
+        public Builder setNotifyEnabled(boolean notifyEnabled) {
+            this.notifyEnabled = notifyEnabled;
+            return this;
+        }
+
+        /**
+         * Upper bound of the reader wait after an empty poll, in case a notification is lost.
+         */
+        public Builder setReaderNotifyTimeoutMs(int readerNotifyTimeoutMs) {
+            this.readerNotifyTimeoutMs = readerNotifyTimeoutMs;
+            return this;
+        }
+
         public Builder setDurationSec(int durationSec) {
             this.durationSec = durationSec;
             return this;
@@ -162,6 +434,70 @@ public final class StressTestConfig {
             return this;
         }
 
+        /**
+         * Prepared statements cached per physical connection, see TransactionManager. Zero disables the cache.
+         */
+        public Builder setStatementCacheSize(int statementCacheSize) {
+            this.statementCacheSize = statementCacheSize;
+            return this;
+        }
+
+        /**
+         * Prepared statements use the binary transfer from the first execution, see TransactionManager.
+         */
+        public Builder setBinaryTransferForced(boolean binaryTransferForced) {
+            this.binaryTransferForced = binaryTransferForced;
+            return this;
+        }
+
+        /**
+         * How often DbHealthSampler samples dead tuples, table sizes and the xmin horizon. Zero disables it.
+         */
+        public Builder setDbHealthSampleIntervalMs(int dbHealthSampleIntervalMs) {
+            this.dbHealthSampleIntervalMs = dbHealthSampleIntervalMs;
+            return this;
+        }
+
+        /**
+         * How often WaitEventSampler samples pg_stat_activity of the benchmark connections. Zero disables it.
+         */
+        public Builder setWaitEventSampleIntervalMs(int waitEventSampleIntervalMs) {
+            this.waitEventSampleIntervalMs = waitEventSampleIntervalMs;
+            return this;
+        }
+
+        /**
+         * How the reported backlog size is measured, SizeMode.EXACT by default. With SizeMode.ESTIMATE the size is
+         * reported with a "~" and an exact count(*) is still taken every exactSizeRecountIntervalSec seconds to check
+         * the estimate, zero disables it.
+         */
+        public Builder setSizeMode(SizeMode sizeMode) {
+            this.sizeMode = sizeMode;
+            return this;
+        }
+
+        public Builder setExactSizeRecountIntervalSec(int exactSizeRecountIntervalSec) {
+            this.exactSizeRecountIntervalSec = exactSizeRecountIntervalSec;
+            return this;
+        }
+
+        /**
+         * Identifies the run in the results, a comparison matches runs with the baseline by it. Default is the
+         * buffer class name.
+         */
+        public Builder setRunName(String runName) {
+            this.runName = runName;
+            return this;
+        }
+
+        /**
+         * Directory for the JSON Lines results, see StressTestResultWriter. Null or empty disables them.
+         */
+        public Builder setResultsDir(String resultsDir) {
+            this.resultsDir = resultsDir;
+            return this;
+        }
+
         public Builder setHost(String host) {
             this.host = host;
             return this;
@@ -188,11 +524,71 @@ public final class StressTestConfig {
         }
 
         /**
-         * See pg-configs/primary/postgresql.conf (max_connections). Default is writerCount + readerCount.
+         * See pg-configs/primary/postgresql.conf (max_connections). Default is writerCount + readerCount
+         * (+1 for the LISTEN connection if notifications are enabled, +1 for the group commit flusher,
+         * +1 for the DB health sampler, +1 for the wait event sampler).
          */
         public Builder setConnectionPoolMaxSize(int size) {
             this.connectionPoolMaxSize = size;
             return this;
         }
     }
+
+    public enum WriterMode {
+        /**
+         * One event per transaction with PgQueueBuffer.offer.
+         */
+        OFFER,
+        /**
+         * writerBatchSize events per transaction with PgQueueBuffer.offerAll.
+         */
+        OFFER_ALL,
+        /**
+         * writerBatchSize events per transaction with PgQueueBuffer.copyAll.
+         */
+        COPY,
+        /**
+         * One event per PgQueueBuffer.offer without a writer transaction, GroupCommitPgQueueBuffer commits the events
+         * of concurrent writers together.
+         */
+        GROUP_COMMIT
+    }
+
+    public enum PayloadFormat {
+        /**
+         * "payload_" + UUID as text, 44 bytes.
+         */
+        UUID,
+        /**
+         * Binary records, like protobuf or Avro, of writerPayloadSizeBytes on average.
+         */
+        BINARY,
+        /**
+         * The same binary records base64-encoded into text, a third larger.
+         */
+        BASE64
+    }
+
+    public enum PayloadSizeDistribution {
+        FIXED,
+        /**
+         * From zero to twice writerPayloadSizeBytes.
+         */
+        UNIFORM,
+        /**
+         * Mostly small records with a long tail of large ones.
+         */
+        LOG_NORMAL
+    }
+
+    public enum SizeMode {
+        /**
+         * PgQueueBuffer.size, a count(*) scanning the whole queue table with all its bloat.
+         */
+        EXACT,
+        /**
+         * PgQueueBuffer.estimateSize, from the table statistics at a constant cost.
+         */
+        ESTIMATE
+    }
 }
@@ -0,0 +1,120 @@
+package ai.toloka.engineering.pg_queue_playground.misc;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes a run as JSON Lines: the config first, then a sample per report and the cumulative summary at the end. Every
+ * line is a flat object with a "type" field, see {@link StressTestComparison} for the reading side.
+ */
+public class StressTestResultWriter implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final DateTimeFormatter FILE_TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final BufferedWriter writer; // null if results are disabled
+
+    private StressTestResultWriter(BufferedWriter writer) {
+        this.writer = writer;
+    }
+
+    public static StressTestResultWriter open(StressTestConfig config) {
+        if (config.resultsDir == null || config.resultsDir.isEmpty()) {
+            return new StressTestResultWriter(null);
+        }
+        Path file = Path.of(config.resultsDir,
+                config.runName + "-" + LocalDateTime.now().format(FILE_TIMESTAMP_FORMAT) + ".jsonl");
+        try {
+            Files.createDirectories(file.getParent());
+            var resultWriter = new StressTestResultWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+            logger.info("Results are written to {}", file.toAbsolutePath());
+            resultWriter.write("config", config.toResultFields());
+            return resultWriter;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void writeSample(Map<String, Object> fields) {
+        write("sample", fields);
+    }
+
+    public void writeSummary(Map<String, Object> fields) {
+        write("summary", fields);
+    }
+
+    private void write(String type, Map<String, Object> fields) {
+        if (writer == null) {
+            return;
+        }
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("type", type);
+        line.putAll(fields);
+        try {
+            writer.write(toJson(line));
+            writer.newLine();
+            writer.flush(); // a killed run keeps what it has measured
+        } catch (IOException e) {
+            logger.error("Can't write results", e);
+        }
+    }
+
+    static String toJson(Map<String, Object> fields) {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            appendString(json, field.getKey());
+            json.append(':');
+            Object value = field.getValue();
+            if (value == null) {
+                json.append("null");
+            } else if (value instanceof Number || value instanceof Boolean) {
+                json.append(value);
+            } else {
+                appendString(json, value.toString());
+            }
+        }
+        return json.append('}').toString();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    @Override
+    public void close() {
+        TransactionManager.closeSafely(writer);
+    }
+}
@@ -5,7 +5,10 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -41,12 +44,13 @@ public class StressTestRunner {
         dsConfig.addDataSourceProperty("serverName", config.host);
         dsConfig.addDataSourceProperty("portNumber", config.port);
         dsConfig.addDataSourceProperty("databaseName", config.db);
+        dsConfig.addDataSourceProperty("applicationName", ApplicationName.DEFAULT);
         dsConfig.setMaximumPoolSize(config.maxPoolSize);
         return new HikariDataSource(dsConfig);
     }
 
     private static void runInner(HikariDataSource dataSource, StressTestConfig config) {
-        var txManager = new TransactionManager(dataSource);
+        var txManager = new TransactionManager(dataSource, config.statementCacheSize, config.binaryTransferForced);
 
         applyDbMigrations(dataSource);
         logger.info("DB migrations are applied");
@@ -55,21 +59,45 @@ public class StressTestRunner {
 
         PgQueueBuffer buffer = config.buffer;
         buffer.init(txManager);
+        buffer.setNotifyEnabled(config.notifyEnabled);
         logger.info("Buffer is initialized");
 
+        NotificationListener notificationListener = config.notifyEnabled
+                ? new NotificationListener(dataSource, PgQueueBuffer.NOTIFY_CHANNEL)
+                : null;
+
+        Dispatcher dispatcher = config.dispatcherWorkerCount > 0
+                ? new Dispatcher(config.dispatcherWorkerCount, config.readerInnerDelayMs)
+                : null;
+
         List<AbstractReaderWriter> readersAndWriters = new ArrayList<>();
-        readersAndWriters.addAll(createReaders(buffer, txManager, config));
+        readersAndWriters.addAll(createReaders(buffer, txManager, notificationListener, dispatcher, config));
         readersAndWriters.addAll(createWriters(buffer, txManager, config));
         logger.info("Readers and writers are created");
 
         var longTxKeeper = new LongTransactionKeeper(txManager);
+        DbHealthSampler dbHealthSampler = config.dbHealthSampleIntervalMs > 0
+                ? new DbHealthSampler(txManager, config.dbHealthSampleIntervalMs)
+                : null;
+        WaitEventSampler waitEventSampler = config.waitEventSampleIntervalMs > 0
+                ? new WaitEventSampler(txManager, config.waitEventSampleIntervalMs)
+                : null;
         ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor();
 
-        try {
-            submitRunnableInExecutorService(buffer, readersAndWriters, longTxKeeper, executorService, config);
-            reportStatWhileRunning(buffer, readersAndWriters, config);
+        if (dispatcher != null) {
+            dispatcher.start();
+        }
+        try (var resultWriter = StressTestResultWriter.open(config)) {
+            submitRunnableInExecutorService(buffer, txManager, readersAndWriters, longTxKeeper, notificationListener,
+                    dbHealthSampler, waitEventSampler, executorService, config);
+            reportStatWhileRunning(buffer, readersAndWriters, txManager, dbHealthSampler, waitEventSampler,
+                    resultWriter, config);
         } finally {
-            stopExecutorService(buffer, readersAndWriters, longTxKeeper, executorService);
+            stopExecutorService(buffer, readersAndWriters, longTxKeeper, notificationListener, dbHealthSampler,
+                    waitEventSampler, executorService);
+            if (dispatcher != null) {
+                dispatcher.close();
+            }
         }
     }
 
@@ -83,15 +111,27 @@ public class StressTestRunner {
     private static void truncateTables(TransactionManager txManager) {
         txManager.begin();
         // see resources/db/migration/V1__create_queue_buffer_tables.sql
+        // and resources/db/migration/V2__create_partitioned_queue_buffer_table.sql
+        // and resources/db/migration/V3__create_sharded_queue_buffer_table.sql
+        // and resources/db/migration/V4__create_leased_queue_buffer_table.sql
+        // and resources/db/migration/V6__change_payload_to_bytea.sql
+        // and resources/db/migration/V7__create_claim_check_queue_buffer_tables.sql
         txManager.execute("TRUNCATE queue_buffer; " +
                 "TRUNCATE queue_buffer_1; " +
                 "TRUNCATE queue_buffer_2; " +
-                "TRUNCATE queue_buffer_3;");
+                "TRUNCATE queue_buffer_3; " +
+                "TRUNCATE queue_buffer_partitioned; " +
+                "TRUNCATE queue_buffer_sharded; " +
+                "TRUNCATE queue_buffer_leased; " +
+                "TRUNCATE queue_buffer_claim_check; " +
+                "TRUNCATE queue_buffer_payload_store;");
         txManager.commit();
     }
 
     private static List<Reader> createReaders(PgQueueBuffer buffer,
                                               TransactionManager txManager,
+                                              NotificationListener notificationListener,
+                                              Dispatcher dispatcher,
                                               StressTestConfig config) {
         List<Reader> readers = new ArrayList<>();
         var readerBarrier = new CyclicBarrier(config.readerCount);
@@ -101,10 +141,20 @@ public class StressTestRunner {
                     buffer,
                     txManager,
                     readerBarrier,
+                    notificationListener,
+                    dispatcher,
+                    new AdaptiveBatchController(
+                            config.readerBatchSize,
+                            config.readerMaxBatchSize,
+                            config.readerLatencyTargetMs,
+                            config.readerMaxBackoffMs
+                    ),
+                    config.readerColumnarPollEnabled,
+                    createPayloadCodec(config),
                     config.readerInnerDelayMs,
-                    config.readerBatchSize,
                     syncCommitEnabled,
-                    config.syncReplicaDelayMs
+                    config.syncReplicaDelayMs,
+                    config.readerNotifyTimeoutMs
             );
             readers.add(reader);
         }
@@ -116,22 +166,38 @@ public class StressTestRunner {
                                               StressTestConfig config) {
         List<Writer> writers = new ArrayList<>();
         var writerBarrier = config.writerCount > 0 ? new CyclicBarrier(config.writerCount) : null;
+        var payloadGenerator = new PayloadGenerator(config.writerPayloadFormat, config.writerPayloadSizeDistribution,
+                config.writerPayloadSizeBytes);
         for (int i = 0; i < config.writerCount; i++) {
             var writer = new Writer(
                     buffer,
                     txManager,
                     writerBarrier,
                     config.writerInnerDelayMs,
-                    config.syncReplicaDelayMs
+                    config.writerMode,
+                    config.writerBatchSize,
+                    config.syncReplicaDelayMs,
+                    payloadGenerator,
+                    createPayloadCodec(config)
             );
             writers.add(writer);
         }
         return writers;
     }
 
+    private static PayloadCodec createPayloadCodec(StressTestConfig config) {
+        return config.payloadCompressionThresholdBytes > 0
+                ? new PayloadCodec(config.payloadCompressionThresholdBytes)
+                : null;
+    }
+
     private static void submitRunnableInExecutorService(PgQueueBuffer buffer,
+                                                        TransactionManager txManager,
                                                         List<AbstractReaderWriter> readersAndWriters,
                                                         LongTransactionKeeper longTxKeeper,
+                                                        NotificationListener notificationListener,
+                                                        DbHealthSampler dbHealthSampler,
+                                                        WaitEventSampler waitEventSampler,
                                                         ExecutorService executorService,
                                                         StressTestConfig config) {
         for (AbstractReaderWriter readerWriter : readersAndWriters) {
@@ -140,13 +206,32 @@ public class StressTestRunner {
         if (config.longTxEnabled) {
             executorService.submit(longTxKeeper);
         }
+        if (notificationListener != null) {
+            executorService.submit(notificationListener);
+        }
+        if (dbHealthSampler != null) {
+            executorService.submit(dbHealthSampler);
+        }
+        if (waitEventSampler != null) {
+            executorService.submit(waitEventSampler);
+        }
         if (buffer instanceof Runnable) {
-            executorService.submit((Runnable) buffer);
+            executorService.submit(() -> {
+                txManager.setApplicationName(ApplicationName.VACUUM);
+                ((Runnable) buffer).run();
+            });
         }
     }
 
     private static void stopExecutorService(PgQueueBuffer buffer, List<AbstractReaderWriter> readersAndWriters,
-                                            LongTransactionKeeper longTxKeeper, ExecutorService executorService) {
+                                            LongTransactionKeeper longTxKeeper,
+                                            NotificationListener notificationListener,
+                                            DbHealthSampler dbHealthSampler,
+                                            WaitEventSampler waitEventSampler,
+                                            ExecutorService executorService) {
+        for (AbstractReaderWriter readerWriter : readersAndWriters) {
+            readerWriter.stop();
+        }
         if (buffer instanceof Closeable) {
             try {
                 ((Closeable) buffer).close();
@@ -155,8 +240,14 @@ public class StressTestRunner {
             }
         }
         longTxKeeper.stop();
-        for (AbstractReaderWriter readerWriter : readersAndWriters) {
-            readerWriter.stop();
+        if (notificationListener != null) {
+            notificationListener.stop();
+        }
+        if (dbHealthSampler != null) {
+            dbHealthSampler.stop();
+        }
+        if (waitEventSampler != null) {
+            waitEventSampler.stop();
         }
         executorService.shutdown();
         try {
@@ -169,35 +260,194 @@ public class StressTestRunner {
     }
 
     private static void reportStatWhileRunning(PgQueueBuffer buffer, List<AbstractReaderWriter> readersAndWriters,
-                                               StressTestConfig config) {
+                                               TransactionManager txManager, DbHealthSampler dbHealthSampler,
+                                               WaitEventSampler waitEventSampler,
+                                               StressTestResultWriter resultWriter, StressTestConfig config) {
+        txManager.setApplicationName(ApplicationName.MONITOR); // the size queries
         long startNs = System.nanoTime();
         long lastReportNs = startNs;
+        long lastExactSizeNs = startNs;
+        var cumulativeLatencies = new Latencies();
         do {
             // 998 instead of 1000 is needed to compensate overhead and to adjust reporting at every second
             Util.sleep(998 - Util.elapsedMs(lastReportNs));
             long deltaMs = Util.elapsedMs(lastReportNs);
             lastReportNs = System.nanoTime();
-            report(buffer, readersAndWriters, deltaMs);
+            Long exactSize = null;
+            if (config.sizeMode == StressTestConfig.SizeMode.ESTIMATE && config.exactSizeRecountIntervalMs > 0
+                    && Util.isElapsed(config.exactSizeRecountIntervalMs, lastExactSizeNs)) {
+                exactSize = buffer.size();
+                lastExactSizeNs = System.nanoTime();
+            }
+            report(buffer, readersAndWriters, txManager, dbHealthSampler, waitEventSampler, deltaMs,
+                    cumulativeLatencies,
+                    resultWriter, Util.elapsedMs(startNs), config.sizeMode, exactSize);
         } while (!Util.isElapsed(config.durationMs, startNs));
+        logger.info("cumulative latency ms p50/p90/p99/p99.9/max: offer {}, commit {}, poll {}, event age {} " +
+                        "(count: offer {}, commit {}, poll {}, event age {})",
+                formatLatency(cumulativeLatencies.offer), formatLatency(cumulativeLatencies.commit),
+                formatLatency(cumulativeLatencies.poll), formatLatency(cumulativeLatencies.eventAge),
+                cumulativeLatencies.offer.getCount(), cumulativeLatencies.commit.getCount(),
+                cumulativeLatencies.poll.getCount(), cumulativeLatencies.eventAge.getCount()
+        );
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("elapsedMs", Util.elapsedMs(startNs));
+        putLatencyFields(summary, cumulativeLatencies);
+        resultWriter.writeSummary(summary);
     }
 
-    private static void report(PgQueueBuffer buffer, List<AbstractReaderWriter> readersAndWriters, long deltaMs) {
+    private static void report(PgQueueBuffer buffer, List<AbstractReaderWriter> readersAndWriters,
+                               TransactionManager txManager, DbHealthSampler dbHealthSampler,
+                               WaitEventSampler waitEventSampler, long deltaMs,
+                               Latencies cumulativeLatencies,
+                               StressTestResultWriter resultWriter, long elapsedMs,
+                               StressTestConfig.SizeMode sizeMode, Long exactSize) {
         ReaderWriterStat readerWriterStat = getStatAndReset(readersAndWriters, deltaMs);
+        Latencies latencies = drainLatencies(readersAndWriters);
+        cumulativeLatencies.merge(latencies);
+        TransactionManager.StatementCacheStat statementCacheStat = txManager.getStatementCacheStatAndReset();
+        TransactionManager.ConnectionAcquisitionStat connectionAcquisitionStat =
+                txManager.getConnectionAcquisitionStatAndReset();
+        Double poolWaitAvgMs = connectionAcquisitionStat.count() > 0
+                ? connectionAcquisitionStat.nanos() / 1_000_000.0 / connectionAcquisitionStat.count()
+                : null;
         Stat readerStat = readerWriterStat.readerStat;
         Stat writerStat = readerWriterStat.writerStat;
-        logger.info("write throughput {}, read throughput {}, size {} " +
-                        "(avg overhead: write {}ms, read {}ms; log rate: write {}, read {})",
-                writerStat.count, readerStat.count,
-                buffer.size(),
+        double payloadBytesPerSec = normalizePerSec(drainPayloadBytes(readersAndWriters), deltaMs);
+        long size = sizeMode == StressTestConfig.SizeMode.EXACT ? buffer.size() : buffer.estimateSize();
+        String sizeText = sizeMode == StressTestConfig.SizeMode.EXACT
+                ? String.valueOf(size)
+                : "~" + size + (exactSize != null ? " (exact " + exactSize + ")" : "");
+        logger.info("write throughput {} ({} MB/s payload), read throughput {}, size {} " +
+                        "(avg overhead: write {}ms, read {}ms; log rate: write {}, read {}; empty polls {}; " +
+                        "statement cache: hits {}, misses {})",
+                writerStat.count, toMb(Math.round(payloadBytesPerSec)), readerStat.count,
+                sizeText,
                 writerStat.avg, readerStat.avg,
-                writerStat.logRate, readerStat.logRate
+                writerStat.logRate, readerStat.logRate,
+                readerStat.emptyCount,
+                statementCacheStat.hits(), statementCacheStat.misses()
         );
+        logger.info("latency ms p50/p90/p99/p99.9/max: offer {}, commit {}, poll {}, event age {}",
+                formatLatency(latencies.offer), formatLatency(latencies.commit), formatLatency(latencies.poll),
+                formatLatency(latencies.eventAge));
+        DbHealthSampler.Sample dbHealth = dbHealthSampler != null ? dbHealthSampler.getLatest() : null;
+        if (dbHealth != null) {
+            DbHealthSampler.TableSample total = dbHealth.total();
+            logger.info("db health: dead tuples {}, live tuples {}, heap {} MB, indexes {} MB, " +
+                            "oldest xmin age {}, oldest xact {} ms, WAL {} MB/s",
+                    total.deadTuples(), total.liveTuples(),
+                    toMb(total.heapBytes()), toMb(total.indexBytes()),
+                    dbHealth.oldestXminAge(), dbHealth.oldestXactAgeMs(),
+                    dbHealth.walBytesPerSec() >= 0 ? toMb(dbHealth.walBytesPerSec()) : "-");
+        }
+        WaitEventSampler.Snapshot waitEvents = waitEventSampler != null ? waitEventSampler.drain() : null;
+        if (waitEvents != null) {
+            logger.info("wait events, avg sessions: {}; pool wait avg {} ms",
+                    formatWaitEvents(waitEvents), poolWaitAvgMs != null ? round(poolWaitAvgMs, 3) : "-");
+        }
+
+        Map<String, Object> sample = new LinkedHashMap<>();
+        sample.put("elapsedMs", elapsedMs);
+        sample.put("writeThroughput", Math.max(writerStat.count, 0));
+        sample.put("readThroughput", Math.max(readerStat.count, 0));
+        sample.put("payloadBytesPerSec", Math.round(payloadBytesPerSec));
+        sample.put("size", size);
+        sample.put("sizeMode", sizeMode);
+        sample.put("exactSize", exactSize);
+        sample.put("writeAvgOverheadMs", writerStat.count > 0 ? Double.parseDouble(writerStat.avg) : null);
+        sample.put("readAvgOverheadMs", readerStat.count > 0 ? Double.parseDouble(readerStat.avg) : null);
+        sample.put("emptyPolls", readerStat.emptyCount);
+        sample.put("statementCacheHits", statementCacheStat.hits());
+        sample.put("statementCacheMisses", statementCacheStat.misses());
+        putLatencyFields(sample, latencies);
+        sample.put("poolWaitAvgMs", poolWaitAvgMs);
+        if (dbHealth != null) {
+            dbHealth.putFields(sample);
+        }
+        if (waitEvents != null) {
+            waitEvents.putFields(sample);
+        }
+        resultWriter.writeSample(sample);
+    }
+
+    private static void putLatencyFields(Map<String, Object> fields, Latencies latencies) {
+        putLatencyFields(fields, "offer", latencies.offer);
+        putLatencyFields(fields, "commit", latencies.commit);
+        putLatencyFields(fields, "poll", latencies.poll);
+        putLatencyFields(fields, "eventAge", latencies.eventAge);
+    }
+
+    private static void putLatencyFields(Map<String, Object> fields, String name, LatencyHistogram.Snapshot snapshot) {
+        boolean empty = snapshot.getCount() == 0;
+        fields.put(name + "Count", snapshot.getCount());
+        fields.put(name + "P50Ms", empty ? null : snapshot.getPercentileNanos(50) / 1_000_000.0);
+        fields.put(name + "P90Ms", empty ? null : snapshot.getPercentileNanos(90) / 1_000_000.0);
+        fields.put(name + "P99Ms", empty ? null : snapshot.getPercentileNanos(99) / 1_000_000.0);
+        fields.put(name + "P999Ms", empty ? null : snapshot.getPercentileNanos(99.9) / 1_000_000.0);
+        fields.put(name + "MaxMs", empty ? null : snapshot.getMaxNanos() / 1_000_000.0);
+    }
+
+    private static Latencies drainLatencies(List<AbstractReaderWriter> readerWriters) {
+        var latencies = new Latencies();
+        for (AbstractReaderWriter readerWriter : readerWriters) {
+            if (readerWriter instanceof Reader reader) {
+                reader.getPollHistogram().drainTo(latencies.poll);
+                reader.getEventAgeHistogram().drainTo(latencies.eventAge);
+            } else if (readerWriter instanceof Writer writer) {
+                writer.getOfferHistogram().drainTo(latencies.offer);
+                writer.getCommitHistogram().drainTo(latencies.commit);
+            }
+        }
+        return latencies;
+    }
+
+    private static long drainPayloadBytes(List<AbstractReaderWriter> readerWriters) {
+        long payloadBytes = 0;
+        for (AbstractReaderWriter readerWriter : readerWriters) {
+            if (readerWriter instanceof Writer writer) {
+                payloadBytes += writer.getPayloadBytesAndReset();
+            }
+        }
+        return payloadBytes;
+    }
+
+    private static String formatLatency(LatencyHistogram.Snapshot snapshot) {
+        if (snapshot.getCount() == 0) {
+            return "-";
+        }
+        return toMs(snapshot.getPercentileNanos(50)) + "/" +
+                toMs(snapshot.getPercentileNanos(90)) + "/" +
+                toMs(snapshot.getPercentileNanos(99)) + "/" +
+                toMs(snapshot.getPercentileNanos(99.9)) + "/" +
+                toMs(snapshot.getMaxNanos());
+    }
+
+    private static String toMs(long nanos) {
+        return round(nanos / 1_000_000.0, 3);
+    }
+
+    private static String formatWaitEvents(WaitEventSampler.Snapshot snapshot) {
+        StringJoiner roles = new StringJoiner("; ");
+        snapshot.getAverageSessions().forEach((role, averages) -> {
+            StringJoiner waitEvents = new StringJoiner(", ", role + " ", "");
+            averages.stream()
+                    .limit(5)
+                    .forEach(average -> waitEvents.add(average.getKey() + " " + round(average.getValue(), 2)));
+            roles.add(waitEvents.toString());
+        });
+        return roles.length() > 0 ? roles.toString() : "-";
+    }
+
+    private static String toMb(long bytes) {
+        return round(bytes / 1_048_576.0, 1);
     }
 
     private static ReaderWriterStat getStatAndReset(List<AbstractReaderWriter> readerWriters, long deltaMs) {
         long readerDeltaSum = 0;
         long readerCountSum = 0;
         long readerLogCount = 0;
+        long readerEmptyLogCount = 0;
         long readerCount = 0;
         long writerDeltaSum = 0;
         long writerCountSum = 0;
@@ -209,6 +459,7 @@ public class StressTestRunner {
                 readerDeltaSum += stat.deltaSum();
                 readerCountSum += stat.countSum();
                 readerLogCount += stat.logCount();
+                readerEmptyLogCount += stat.emptyLogCount();
                 readerCount += 1;
             } else {
                 writerDeltaSum += stat.deltaSum();
@@ -220,21 +471,23 @@ public class StressTestRunner {
         Stat readerStat;
         Stat writerStat;
         if (readerCountSum == 0) {
-            readerStat = new Stat("-1", -1, "-1");
+            readerStat = new Stat("-1", -1, "-1", readerEmptyLogCount);
         } else {
             readerStat = new Stat(
                     round(((double) readerDeltaSum) / readerCountSum / 1_000_000, 3),
                     readerCountSum,
-                    round(normalizePerSec(((double) readerLogCount) / readerCount, deltaMs), 3)
+                    round(normalizePerSec(((double) readerLogCount) / readerCount, deltaMs), 3),
+                    readerEmptyLogCount
             );
         }
         if (writerCountSum == 0) {
-            writerStat = new Stat("-1", -1, "-1");
+            writerStat = new Stat("-1", -1, "-1", 0);
         } else {
             writerStat = new Stat(
                     round(((double) writerDeltaSum) / writerCountSum / 1_000_000, 3),
                     writerCountSum,
-                    round(normalizePerSec(((double) writerLogCount) / writerCount, deltaMs), 3)
+                    round(normalizePerSec(((double) writerLogCount) / writerCount, deltaMs), 3),
+                    0
             );
         }
         return new ReaderWriterStat(readerStat, writerStat);
@@ -251,6 +504,24 @@ public class StressTestRunner {
     private record ReaderWriterStat(Stat readerStat, Stat writerStat) {
     }
 
-    private record Stat(String avg, long count, String logRate) {
+    private record Latencies(LatencyHistogram.Snapshot offer,
+                             LatencyHistogram.Snapshot commit,
+                             LatencyHistogram.Snapshot poll,
+                             LatencyHistogram.Snapshot eventAge) {
+
+        Latencies() {
+            this(new LatencyHistogram.Snapshot(), new LatencyHistogram.Snapshot(), new LatencyHistogram.Snapshot(),
+                    new LatencyHistogram.Snapshot());
+        }
+
+        void merge(Latencies other) {
+            offer.merge(other.offer);
+            commit.merge(other.commit);
+            poll.merge(other.poll);
+            eventAge.merge(other.eventAge);
+        }
+    }
+
+    private record Stat(String avg, long count, String logRate, long emptyCount) {
     }
 }
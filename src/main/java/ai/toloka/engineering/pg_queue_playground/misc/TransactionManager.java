@@ -1,25 +1,62 @@
 package ai.toloka.engineering.pg_queue_playground.misc;
 
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.sql.DataSource;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGStatement;
 
 public class TransactionManager {
 
     private static final Logger logger = LogManager.getLogger();
 
+    private static final int COPY_BUFFER_SIZE = 65_536;
+
     private final DataSource dataSource;
+    private final int statementCacheSize;
+    private final boolean binaryTransferForced;
     private final ThreadLocal<Connection> connectionThreadLocal = new ThreadLocal<>();
+    private final ThreadLocal<ApplicationName> applicationNameThreadLocal = new ThreadLocal<>();
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final LongAdder connectionAcquisitionCount = new LongAdder();
+    private final LongAdder connectionAcquisitionNanos = new LongAdder();
 
     public TransactionManager(DataSource dataSource) {
+        this(dataSource, 0, false);
+    }
+
+    public TransactionManager(DataSource dataSource, int statementCacheSize) {
+        this(dataSource, statementCacheSize, false);
+    }
+
+    /**
+     * Keeps up to statementCacheSize prepared statements per physical connection, so a hot statement object isn't
+     * created and its SQL isn't parsed by the driver on every call. Zero disables the cache. Either way the driver
+     * counts executions per SQL in its per-connection query cache and makes the statement server-prepared, with the
+     * binary transfer, after prepareThreshold executions.
+     * <p>
+     * binaryTransferForced makes prepared statements use the binary transfer from the first execution. It only saves
+     * the first prepareThreshold - 1 round trips of a statement, whose results come as text, a bytea payload
+     * hex-encoded at twice its size.
+     */
+    public TransactionManager(DataSource dataSource, int statementCacheSize, boolean binaryTransferForced) {
         this.dataSource = dataSource;
+        this.statementCacheSize = statementCacheSize;
+        this.binaryTransferForced = binaryTransferForced;
     }
 
     public static void closeSafely(AutoCloseable closeable) {
@@ -33,11 +70,23 @@ public class TransactionManager {
         }
     }
 
+    /**
+     * Sets application_name of the connections used by the current thread from now on. The driver sends it only when
+     * the connection had another name, which is rare, as the pool prefers the connection the thread used last.
+     */
+    public void setApplicationName(ApplicationName applicationName) {
+        applicationNameThreadLocal.set(applicationName);
+    }
+
     public void begin() {
         Connection connection = null;
         try {
+            long startNanos = System.nanoTime();
             connection = dataSource.getConnection();
+            connectionAcquisitionNanos.add(System.nanoTime() - startNanos);
+            connectionAcquisitionCount.increment();
             connectionThreadLocal.set(connection);
+            applyApplicationName(connection); // before the transaction, otherwise the rollback reverts it
             connection.setAutoCommit(false);
         } catch (Exception e) {
             connectionThreadLocal.remove();
@@ -88,13 +137,14 @@ public class TransactionManager {
         }
         PreparedStatement preparedStatement = null;
         try {
-            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement = prepareStatement(connection, sql);
             preparedStatementConsumer.consume(preparedStatement);
             ResultSet resultSet = preparedStatement.executeQuery();
             resultSetConsumer.consume(resultSet);
             closeSafely(resultSet);
-            closeSafely(preparedStatement);
+            releaseStatement(preparedStatement);
         } catch (Exception e) {
+            evictStatement(connection, sql);
             rollbackSafely(connection, preparedStatement);
             throw new RuntimeException(e);
         }
@@ -125,11 +175,12 @@ public class TransactionManager {
         }
         PreparedStatement preparedStatement = null;
         try {
-            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement = prepareStatement(connection, sql);
             preparedStatementConsumer.consume(preparedStatement);
             preparedStatement.execute();
-            closeSafely(preparedStatement);
+            releaseStatement(preparedStatement);
         } catch (Exception e) {
+            evictStatement(connection, sql);
             rollbackSafely(connection, preparedStatement);
             throw new RuntimeException(e);
         }
@@ -151,6 +202,101 @@ public class TransactionManager {
         }
     }
 
+    public long copyIn(String sql, InputStream inputStream) {
+        Connection connection = connectionThreadLocal.get();
+        if (connection == null) {
+            throw new IllegalStateException("There is no connection to copy");
+        }
+        try {
+            return connection.unwrap(PGConnection.class)
+                    .getCopyAPI()
+                    .copyIn(sql, inputStream, COPY_BUFFER_SIZE);
+        } catch (Exception e) {
+            rollbackSafely(connection, null);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Cached statements are prepared on the physical connection, because the pool closes the statements of the
+     * pooled connection when it's returned.
+     */
+    private PreparedStatement prepareStatement(Connection connection, String sql) throws SQLException {
+        if (statementCacheSize <= 0) {
+            return forceBinaryTransferIfEnabled(connection.prepareStatement(sql));
+        }
+        Connection physicalConnection = connection.unwrap(Connection.class);
+        StatementCache statementCache = statementCaches.get(physicalConnection);
+        if (statementCache == null) {
+            // connections retired by the pool don't come back
+            statementCaches.keySet().removeIf(TransactionManager::isClosedSafely);
+            statementCache = new StatementCache(statementCacheSize);
+            statementCaches.put(physicalConnection, statementCache);
+        }
+        PreparedStatement preparedStatement = statementCache.get(sql);
+        if (preparedStatement != null) {
+            statementCacheHits.increment();
+            return preparedStatement;
+        }
+        statementCacheMisses.increment();
+        preparedStatement = forceBinaryTransferIfEnabled(physicalConnection.prepareStatement(sql));
+        statementCache.put(sql, preparedStatement);
+        return preparedStatement;
+    }
+
+    private PreparedStatement forceBinaryTransferIfEnabled(PreparedStatement preparedStatement) throws SQLException {
+        if (binaryTransferForced) {
+            preparedStatement.unwrap(PGStatement.class).setPrepareThreshold(-1); // negative forces the binary transfer
+        }
+        return preparedStatement;
+    }
+
+    private void releaseStatement(PreparedStatement preparedStatement) throws SQLException {
+        if (statementCacheSize <= 0) {
+            closeSafely(preparedStatement);
+        } else {
+            preparedStatement.clearParameters();
+        }
+    }
+
+    private void evictStatement(Connection connection, String sql) {
+        if (statementCacheSize <= 0) {
+            return;
+        }
+        try {
+            StatementCache statementCache = statementCaches.get(connection.unwrap(Connection.class));
+            if (statementCache != null) {
+                statementCache.remove(sql); // closed by the rollback
+            }
+        } catch (Exception e) {
+            logger.error("Unexpected exception while statement eviction", e);
+        }
+    }
+
+    private static boolean isClosedSafely(Connection connection) {
+        try {
+            return connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private void applyApplicationName(Connection connection) throws SQLException {
+        ApplicationName applicationName = applicationNameThreadLocal.get();
+        if (applicationName != null) {
+            connection.setClientInfo("ApplicationName", applicationName.value);
+        }
+    }
+
+    public ConnectionAcquisitionStat getConnectionAcquisitionStatAndReset() {
+        return new ConnectionAcquisitionStat(connectionAcquisitionCount.sumThenReset(),
+                connectionAcquisitionNanos.sumThenReset());
+    }
+
+    public StatementCacheStat getStatementCacheStatAndReset() {
+        return new StatementCacheStat(statementCacheHits.sumThenReset(), statementCacheMisses.sumThenReset());
+    }
+
     private void rollbackSafely(Connection connection, Statement statement) {
         try {
             connectionThreadLocal.remove();
@@ -168,6 +314,7 @@ public class TransactionManager {
         Statement statement = null;
         try {
             connection = dataSource.getConnection();
+            applyApplicationName(connection);
             statement = connection.createStatement();
             statement.execute(sql);
         } catch (Exception e) {
@@ -184,6 +331,7 @@ public class TransactionManager {
         ResultSet resultSet = null;
         try {
             connection = dataSource.getConnection();
+            applyApplicationName(connection);
             statement = connection.createStatement();
             resultSet = statement.executeQuery(sql);
             resultSetConsumer.consume(resultSet);
@@ -196,6 +344,37 @@ public class TransactionManager {
         }
     }
 
+    public record StatementCacheStat(long hits, long misses) {
+    }
+
+    /**
+     * Time spent waiting for a pool connection in begin, the client-side wait pg_stat_activity can't see.
+     */
+    public record ConnectionAcquisitionStat(long count, long nanos) {
+    }
+
+    /**
+     * LRU by access order. A physical connection is used by one thread at a time, so there is no locking.
+     */
+    private static final class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+
+        private final int maxSize;
+
+        StatementCache(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= maxSize) {
+                return false;
+            }
+            closeSafely(eldest.getValue());
+            return true;
+        }
+    }
+
     public interface PreparedStatementConsumer {
 
         void consume(PreparedStatement ps) throws SQLException;
@@ -0,0 +1,116 @@
+package ai.toloka.engineering.pg_queue_playground.misc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Samples pg_stat_activity of the benchmark connections several times per second and counts the sessions per role
+ * (see {@link ApplicationName}) and per wait event. An active session without a wait event is on CPU, and a session
+ * idle in transaction waits for the client. Divided by the number of samples, a count is the average number of
+ * sessions in that state over the interval.
+ */
+public class WaitEventSampler implements Runnable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final String CPU = "CPU";
+
+    private final TransactionManager txManager;
+    private final int intervalMs;
+
+    private volatile boolean enabled = true;
+
+    // guarded by this
+    private Map<String, Map<String, Long>> counts = new HashMap<>();
+    private long sampleCount;
+
+    public WaitEventSampler(TransactionManager txManager, int intervalMs) {
+        this.txManager = txManager;
+        this.intervalMs = intervalMs;
+    }
+
+    @Override
+    public void run() {
+        txManager.setApplicationName(ApplicationName.MONITOR);
+        while (enabled) {
+            long startNs = System.nanoTime();
+            try {
+                sample();
+            } catch (RuntimeException e) {
+                logger.error("Unexpected exception while sampling wait events", e);
+            }
+            Util.sleep(intervalMs - Util.elapsedMs(startNs));
+        }
+    }
+
+    public void stop() {
+        enabled = false;
+    }
+
+    private void sample() {
+        List<String[]> sessions = new ArrayList<>();
+        txManager.executeWithoutTx("select application_name, state, wait_event_type, wait_event " +
+                "from pg_stat_activity " +
+                "where application_name like '" + ApplicationName.DEFAULT + "-%' " +
+                "and state <> 'idle' and pid <> pg_backend_pid()", rs -> {
+            while (rs.next()) {
+                sessions.add(new String[]{rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4)});
+            }
+        });
+        synchronized (this) {
+            for (String[] session : sessions) {
+                String role = session[0].substring(ApplicationName.DEFAULT.length() + 1);
+                counts.computeIfAbsent(role, r -> new HashMap<>())
+                        .merge(toWaitEvent(session[1], session[2], session[3]), 1L, Long::sum);
+            }
+            sampleCount += 1;
+        }
+    }
+
+    private static String toWaitEvent(String state, String waitEventType, String waitEvent) {
+        if (!"active".equals(state)) {
+            return state;
+        }
+        return waitEventType == null ? CPU : waitEventType + ":" + waitEvent;
+    }
+
+    public synchronized Snapshot drain() {
+        var snapshot = new Snapshot(counts, sampleCount);
+        counts = new HashMap<>();
+        sampleCount = 0;
+        return snapshot;
+    }
+
+    public record Snapshot(Map<String, Map<String, Long>> counts, long sampleCount) {
+
+        /**
+         * Average sessions per role and wait event, the most frequent wait events first.
+         */
+        public Map<String, List<Map.Entry<String, Double>>> getAverageSessions() {
+            Map<String, List<Map.Entry<String, Double>>> result = new TreeMap<>();
+            if (sampleCount == 0) {
+                return result;
+            }
+            counts.forEach((role, waitEvents) -> {
+                List<Map.Entry<String, Double>> averages = new ArrayList<>();
+                waitEvents.forEach((waitEvent, count) ->
+                        averages.add(Map.entry(waitEvent, (double) count / sampleCount)));
+                averages.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+                result.put(role, averages);
+            });
+            return result;
+        }
+
+        public void putFields(Map<String, Object> fields) {
+            fields.put("waitEventSamples", sampleCount);
+            getAverageSessions().forEach((role, averages) -> averages.forEach(average ->
+                    fields.put("wait." + role + "." + average.getKey(), average.getValue())));
+        }
+    }
+}
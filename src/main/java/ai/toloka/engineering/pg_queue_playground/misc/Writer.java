@@ -1,7 +1,9 @@
 package ai.toloka.engineering.pg_queue_playground.misc;
 
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.LongAdder;
 
 import ai.toloka.engineering.pg_queue_playground.Event;
 import ai.toloka.engineering.pg_queue_playground.PgQueueBuffer;
@@ -12,31 +14,103 @@ public class Writer extends AbstractReaderWriter {
 
     private final PgQueueBuffer buffer;
     private final int innerDelayMs;
+    private final StressTestConfig.WriterMode mode;
+    private final int batchSize;
     private final int syncReplicaDelayMs;
+    private final PayloadGenerator payloadGenerator;
+    private final PayloadCodec payloadCodec; // null if payloads aren't compressed
+    private final LongAdder payloadBytes = new LongAdder();
+    private final LatencyHistogram offerHistogram = new LatencyHistogram();
+    private final LatencyHistogram commitHistogram = new LatencyHistogram();
 
     public Writer(PgQueueBuffer buffer,
                   TransactionManager txManager,
                   CyclicBarrier barrier,
                   int innerDelayMs,
-                  int syncReplicaDelayMs) {
-        super("writer-" + counter, txManager, barrier);
+                  StressTestConfig.WriterMode mode,
+                  int batchSize,
+                  int syncReplicaDelayMs,
+                  PayloadGenerator payloadGenerator,
+                  PayloadCodec payloadCodec) {
+        super("writer-" + counter, ApplicationName.WRITER, txManager, barrier);
 
         this.buffer = buffer;
         this.innerDelayMs = innerDelayMs;
+        this.mode = mode;
+        this.batchSize = mode == StressTestConfig.WriterMode.OFFER || mode == StressTestConfig.WriterMode.GROUP_COMMIT
+                ? 1
+                : batchSize;
         this.syncReplicaDelayMs = syncReplicaDelayMs;
+        this.payloadGenerator = payloadGenerator;
+        this.payloadCodec = payloadCodec;
 
         counter += 1;
     }
 
     @Override
     protected void runInner() {
+        if (mode == StressTestConfig.WriterMode.GROUP_COMMIT) {
+            long[] offerNanos = new long[1];
+            long deltaNanos = Util.timed(() -> {
+                Util.sleep(innerDelayMs);
+                offerNanos[0] = Util.timed(() -> buffer.offer(createEvent())); // stuck until the group is committed
+            });
+            offerHistogram.record(offerNanos[0]);
+            logStat(deltaNanos - (innerDelayMs + syncReplicaDelayMs) * 1_000_000L, batchSize);
+            return;
+        }
+        long[] offerNanos = new long[1];
+        long[] commitNanos = new long[1];
         long deltaNanos = Util.timed(() -> {
             txManager.begin();
             Util.sleep(innerDelayMs);
-            Event event = new Event("payload_" + UUID.randomUUID());
-            buffer.offer(event);
-            txManager.commit(); // stuck at least on syncReplicaDelayMs
+            offerNanos[0] = Util.timed(() -> {
+                switch (mode) {
+                    case OFFER -> buffer.offer(createEvent());
+                    case OFFER_ALL -> buffer.offerAll(createEvents());
+                    case COPY -> buffer.copyAll(createEvents());
+                    default -> throw new IllegalStateException("Unexpected writer mode " + mode);
+                }
+            });
+            commitNanos[0] = Util.timed(txManager::commit); // stuck at least on syncReplicaDelayMs
         });
-        logStat(deltaNanos - (innerDelayMs + syncReplicaDelayMs) * 1_000_000L, 1);
+        offerHistogram.record(offerNanos[0]);
+        commitHistogram.record(commitNanos[0]);
+        logStat(deltaNanos - (innerDelayMs + syncReplicaDelayMs) * 1_000_000L, batchSize);
+    }
+
+    public LatencyHistogram getOfferHistogram() {
+        return offerHistogram;
+    }
+
+    /**
+     * Empty in WriterMode.GROUP_COMMIT, the commit is a part of the offer there.
+     */
+    public LatencyHistogram getCommitHistogram() {
+        return commitHistogram;
+    }
+
+    /**
+     * Payload bytes offered since the last call, after the compression.
+     */
+    public long getPayloadBytesAndReset() {
+        return payloadBytes.sumThenReset();
+    }
+
+    private List<Event> createEvents() {
+        List<Event> events = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            events.add(createEvent());
+        }
+        return events;
+    }
+
+    private Event createEvent() {
+        byte[] payload = payloadGenerator.next();
+        if (payloadCodec != null) {
+            payload = payloadCodec.encode(payload);
+        }
+        payloadBytes.add(payload.length);
+        return new Event(payload);
     }
 }
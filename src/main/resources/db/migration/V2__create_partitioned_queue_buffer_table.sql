@@ -0,0 +1,7 @@
+create table queue_buffer_partitioned
+(
+    slot    INT       not null,
+    id      BIGSERIAL not null,
+    payload TEXT      not null,
+    primary key (slot, id)
+) partition by list (slot);
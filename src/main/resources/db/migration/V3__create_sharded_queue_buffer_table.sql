@@ -0,0 +1,7 @@
+create table queue_buffer_sharded
+(
+    id      BIGSERIAL not null,
+    shard   SMALLINT generated always as ((id % 64)::smallint) stored, -- see PgQueueBuffer_8 VIRTUAL_SHARD_COUNT
+    payload TEXT      not null,
+    primary key (shard, id)
+);
@@ -0,0 +1,7 @@
+create table queue_buffer_leased
+(
+    id           BIGSERIAL primary key,
+    payload      TEXT not null,
+    leased_until TIMESTAMPTZ,
+    lease_owner  UUID
+) with (fillfactor = 80); -- free space for HOT updates of the lease columns
@@ -0,0 +1,8 @@
+-- clock_timestamp() instead of now(), so a long producer transaction doesn't make its events look older
+alter table queue_buffer add column created_at TIMESTAMPTZ not null default clock_timestamp();
+alter table queue_buffer_1 add column created_at TIMESTAMPTZ not null default clock_timestamp();
+alter table queue_buffer_2 add column created_at TIMESTAMPTZ not null default clock_timestamp();
+alter table queue_buffer_3 add column created_at TIMESTAMPTZ not null default clock_timestamp();
+alter table queue_buffer_partitioned add column created_at TIMESTAMPTZ not null default clock_timestamp();
+alter table queue_buffer_sharded add column created_at TIMESTAMPTZ not null default clock_timestamp();
+alter table queue_buffer_leased add column created_at TIMESTAMPTZ not null default clock_timestamp();
@@ -0,0 +1,8 @@
+-- payloads are opaque bytes, text payloads are stored as UTF-8
+alter table queue_buffer alter column payload type BYTEA using convert_to(payload, 'UTF8');
+alter table queue_buffer_1 alter column payload type BYTEA using convert_to(payload, 'UTF8');
+alter table queue_buffer_2 alter column payload type BYTEA using convert_to(payload, 'UTF8');
+alter table queue_buffer_3 alter column payload type BYTEA using convert_to(payload, 'UTF8');
+alter table queue_buffer_partitioned alter column payload type BYTEA using convert_to(payload, 'UTF8');
+alter table queue_buffer_sharded alter column payload type BYTEA using convert_to(payload, 'UTF8');
+alter table queue_buffer_leased alter column payload type BYTEA using convert_to(payload, 'UTF8');
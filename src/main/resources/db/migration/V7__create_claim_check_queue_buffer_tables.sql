@@ -0,0 +1,21 @@
+-- see PgQueueBuffer_10_ClaimCheckSelectForUpdateSkipLockedWhereIdSyncCommitOff
+create table queue_buffer_claim_check
+(
+    id           BIGSERIAL primary key,
+    payload      BYTEA       not null, -- empty if the payload is in queue_buffer_payload_store
+    payload_slot SMALLINT,             -- partition of queue_buffer_payload_store, null if the payload is inline
+    created_at   TIMESTAMPTZ not null default clock_timestamp()
+);
+
+-- append-only, the payloads are never deleted one by one but with their partition by TRUNCATE
+create table queue_buffer_payload_store
+(
+    slot    SMALLINT not null, -- the type of queue_buffer_claim_check.payload_slot
+    id      BIGINT   not null, -- of the event in queue_buffer_claim_check
+    payload BYTEA    not null
+) partition by list (slot);
+
+create index on queue_buffer_payload_store (id);
+
+-- for the rotation of PgQueueBuffer_10, which checks whether any queue row still points to a slot
+create index on queue_buffer_claim_check (payload_slot, id) where payload_slot is not null;
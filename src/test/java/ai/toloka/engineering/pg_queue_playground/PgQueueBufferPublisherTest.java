@@ -0,0 +1,232 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import ai.toloka.engineering.pg_queue_playground.misc.TransactionManager;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PgQueueBufferPublisherTest {
+
+    @Test
+    void deliversOnlyRequestedEvents() throws InterruptedException {
+        var buffer = new InMemoryBuffer(10);
+        var publisher = new PgQueueBufferPublisher(buffer, 2, 1, 5);
+        var subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(3);
+        awaitUntil(() -> subscriber.received.size() == 3);
+        Thread.sleep(50);
+        assertEquals(3, subscriber.received.size(), "no events beyond the demand");
+        assertEquals(7, buffer.size());
+
+        subscriber.subscription.request(4);
+        awaitUntil(() -> subscriber.received.size() == 7);
+        Thread.sleep(50);
+        assertEquals(7, subscriber.received.size());
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L), subscriber.receivedIds());
+        assertTrue(buffer.maxPolledCount <= 2, "a poll claims at most maxBatchSize events");
+
+        publisher.close();
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    void cancelInTheMiddleOfBatchRollsItBack() throws InterruptedException {
+        var buffer = new InMemoryBuffer(4);
+        var publisher = new PgQueueBufferPublisher(buffer, 2, 1, 5);
+        var subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(Event item) {
+                super.onNext(item);
+                subscription.cancel();
+            }
+        };
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(10);
+        awaitUntil(() -> buffer.unregistered);
+        assertEquals(List.of(1L), subscriber.receivedIds());
+        assertEquals(4, buffer.size(), "the cancelled batch is redelivered");
+        assertEquals(1, subscriber.completed.getCount(), "cancel doesn't complete the subscriber");
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    void throwingOnNextRollsBackTheBatchAndStopsPolling() {
+        var buffer = new InMemoryBuffer(4);
+        var publisher = new PgQueueBufferPublisher(buffer, 2, 1, 5);
+        var subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(Event item) {
+                super.onNext(item);
+                throw new IllegalStateException("Subscriber failure");
+            }
+        };
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(10);
+        awaitUntil(() -> buffer.unregistered);
+        assertEquals(List.of(1L), subscriber.receivedIds());
+        assertEquals(4, buffer.size(), "the failed batch is redelivered");
+        assertNull(subscriber.error, "the failure of the subscriber isn't signalled back to it");
+    }
+
+    @Test
+    void nonPositiveRequestSignalsError() throws InterruptedException {
+        var buffer = new InMemoryBuffer(4);
+        var publisher = new PgQueueBufferPublisher(buffer, 2, 1, 5);
+        var subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.terminated.await(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalArgumentException.class, subscriber.error);
+        assertEquals(1, subscriber.errorCount);
+        assertTrue(subscriber.received.isEmpty());
+        assertEquals(4, buffer.size());
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition isn't met in 5 seconds");
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Event> {
+
+        final List<Event> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        final CountDownLatch terminated = new CountDownLatch(1);
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+        volatile int errorCount;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Event item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            errorCount += 1;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+            terminated.countDown();
+        }
+
+        List<Long> receivedIds() {
+            return received.stream().map(e -> e.id).toList();
+        }
+    }
+
+    /**
+     * Rolls the claimed events back when the consumer throws, as the poll transaction of a real buffer does.
+     */
+    private static class InMemoryBuffer implements PgQueueBuffer {
+
+        private final Deque<Event> events = new ArrayDeque<>();
+
+        volatile int maxPolledCount;
+        volatile boolean unregistered;
+
+        InMemoryBuffer(int eventCount) {
+            for (long id = 1; id <= eventCount; id++) {
+                events.add(new Event(id, new byte[0], null));
+            }
+        }
+
+        @Override
+        public void init(TransactionManager txManager) {
+        }
+
+        @Override
+        public void setNotifyEnabled(boolean notifyEnabled) {
+        }
+
+        @Override
+        public void registerReader(String readerName) {
+        }
+
+        @Override
+        public void unregisterReader(String readerName) {
+            unregistered = true;
+        }
+
+        @Override
+        public void offer(Event event) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void offerAll(Collection<Event> events) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void copyAll(Iterable<Event> events) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized void poll(int count, Consumer<List<Event>> consumer) {
+            maxPolledCount = Math.max(maxPolledCount, count);
+            List<Event> claimed = new ArrayList<>();
+            while (claimed.size() < count && !events.isEmpty()) {
+                claimed.add(events.poll());
+            }
+            try {
+                consumer.accept(claimed);
+            } catch (RuntimeException e) {
+                for (int i = claimed.size() - 1; i >= 0; i--) {
+                    events.addFirst(claimed.get(i));
+                }
+            }
+        }
+
+        @Override
+        public synchronized long size() {
+            return events.size();
+        }
+
+        @Override
+        public long estimateSize() {
+            return size();
+        }
+
+        @Override
+        public boolean isSyncCommitEnabled() {
+            return false;
+        }
+    }
+}
@@ -104,6 +104,178 @@ class PgQueueBufferStressTest {
         StressTestRunner.run(config);
     }
 
+    @Test
+    void test_PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_OfferAll() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff(10))
+                .setWriterCount(20)
+                .setWriterInnerDelayMs(20)
+                .setWriterMode(StressTestConfig.WriterMode.OFFER_ALL)
+                .setWriterBatchSize(100)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(100)
+                .setRunName("PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_OfferAll")
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
+    @Test
+    void test_PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_Copy() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff(10))
+                .setWriterCount(5)
+                .setWriterInnerDelayMs(20)
+                .setWriterMode(StressTestConfig.WriterMode.COPY)
+                .setWriterBatchSize(10_000)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(1_000)
+                .setRunName("PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_Copy")
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
+    @Test
+    void test_PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_GroupCommit() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new GroupCommitPgQueueBuffer(
+                        new PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff(10), 500, 5))
+                .setWriterCount(175)
+                .setWriterInnerDelayMs(20)
+                .setWriterMode(StressTestConfig.WriterMode.GROUP_COMMIT)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(10)
+                .setRunName("PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_GroupCommit")
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
+    @Test
+    void test_PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_StatementCache() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff(10))
+                .setWriterCount(175)
+                .setWriterInnerDelayMs(20)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(10)
+                .setRunName("PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_StatementCache")
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setStatementCacheSize(64)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
+    @Test
+    void test_PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_AdaptiveBatch() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff(10))
+                .setWriterCount(175)
+                .setWriterInnerDelayMs(20)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(10)
+                .setReaderMaxBatchSize(1_000)
+                .setReaderLatencyTargetMs(50)
+                .setReaderMaxBackoffMs(100)
+                .setRunName("PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_AdaptiveBatch")
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
+    @Test
+    void test_PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_ColumnarPoll() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff(10))
+                .setWriterCount(175)
+                .setWriterInnerDelayMs(20)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(1_000)
+                .setReaderColumnarPollEnabled(true)
+                .setRunName("PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_ColumnarPoll")
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
+    @Test
+    void test_PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_BinaryPayload() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff(10))
+                .setWriterCount(5)
+                .setWriterInnerDelayMs(20)
+                .setWriterMode(StressTestConfig.WriterMode.COPY)
+                .setWriterBatchSize(1_000)
+                .setWriterPayloadFormat(StressTestConfig.PayloadFormat.BINARY)
+                .setWriterPayloadSizeDistribution(StressTestConfig.PayloadSizeDistribution.LOG_NORMAL)
+                .setWriterPayloadSizeBytes(2_048)
+                .setPayloadCompressionThresholdBytes(512)
+                .setBinaryTransferForced(true)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(1_000)
+                .setReaderColumnarPollEnabled(true)
+                .setRunName("PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_BinaryPayload")
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
+    @Test
+    void test_PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_Dispatcher() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff(10))
+                .setWriterCount(175)
+                .setWriterInnerDelayMs(20)
+                .setReaderCount(4)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(500)
+                .setDispatcherWorkerCount(500)
+                .setRunName("PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff_Dispatcher")
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
     @Test
     void test_PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTruncate() {
         StressTestConfig config = StressTestConfig.builder()
@@ -122,4 +294,143 @@ class PgQueueBufferStressTest {
 
         StressTestRunner.run(config);
     }
+
+    @Test
+    void test_PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTruncate_Adaptive() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTruncate(
+                        10, 3, 1_000,
+                        PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTruncate
+                                .PseudoVacuumThresholds.DEFAULT))
+                .setWriterCount(175)
+                .setWriterInnerDelayMs(20)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(10)
+                .setRunName("PgQueueBuffer_5_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndTruncate_Adaptive")
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
+    @Test
+    void test_PgQueueBuffer_6_DeleteReturningSkipLocked() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_6_DeleteReturningSkipLocked())
+                .setWriterCount(175)
+                .setWriterInnerDelayMs(20)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(10)
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
+    @Test
+    void test_PgQueueBuffer_6_DeleteReturningSkipLocked_Notify() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_6_DeleteReturningSkipLocked())
+                .setWriterCount(10)
+                .setWriterInnerDelayMs(20)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(10)
+                .setNotifyEnabled(true)
+                .setRunName("PgQueueBuffer_6_DeleteReturningSkipLocked_Notify")
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
+    @Test
+    void test_PgQueueBuffer_7_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndPartitionRotation() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_7_SelectForUpdateSkipLockedWhereIdSyncCommitOffAndPartitionRotation(
+                        10, 4, 10))
+                .setWriterCount(175)
+                .setWriterInnerDelayMs(20)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(10)
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
+    @Test
+    void test_PgQueueBuffer_8_ShardedSelectForUpdateSkipLockedWhereIdSyncCommitOff() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_8_ShardedSelectForUpdateSkipLockedWhereIdSyncCommitOff(10))
+                .setWriterCount(175)
+                .setWriterInnerDelayMs(20)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(10)
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
+    @Test
+    void test_PgQueueBuffer_9_LeaseWithVisibilityTimeout() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_9_LeaseWithVisibilityTimeout(30_000))
+                .setWriterCount(175)
+                .setWriterInnerDelayMs(20)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(10)
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
+
+    @Test
+    void test_PgQueueBuffer_10_ClaimCheckSelectForUpdateSkipLockedWhereIdSyncCommitOff() {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_10_ClaimCheckSelectForUpdateSkipLockedWhereIdSyncCommitOff(
+                        10, 1_024, 4, 10))
+                .setWriterCount(175)
+                .setWriterInnerDelayMs(20)
+                .setWriterPayloadFormat(StressTestConfig.PayloadFormat.BINARY)
+                .setWriterPayloadSizeDistribution(StressTestConfig.PayloadSizeDistribution.LOG_NORMAL)
+                .setWriterPayloadSizeBytes(4_096)
+                .setBinaryTransferForced(true)
+                .setReaderCount(20)
+                .setReaderInnerDelayMs(10)
+                .setReaderBatchSize(100)
+                .setReaderColumnarPollEnabled(true)
+                .setDurationSec(60)
+                .setLongTxEnabled(true)
+                .setHost(host)
+                .setPort(port)
+                .build();
+
+        StressTestRunner.run(config);
+    }
 }
@@ -0,0 +1,72 @@
+package ai.toloka.engineering.pg_queue_playground;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PgQueueBuffer_10_ClaimCheckSelectForUpdateSkipLockedWhereIdSyncCommitOffTest {
+
+    @Test
+    void mergeStoredPayloads_replacesOnlyStoredPayloads() {
+        EventBatch claimed = new EventBatch(2, 4);
+        claimed.add(1, bytes("a"), 11);
+        claimed.add(2, new byte[0], 12);
+        claimed.add(3, new byte[0], 13);
+        claimed.add(4, new byte[0], 14);
+        claimed.add(5, bytes("bc"), 15);
+        long[] storedIds = {2, 3, 0};
+        byte[][] storedPayloads = {bytes("stored-2"), bytes("stored-3"), null};
+
+        EventBatch batch = new EventBatch();
+        batch.add(99, bytes("stale"), 99);
+        PgQueueBuffer_10_ClaimCheckSelectForUpdateSkipLockedWhereIdSyncCommitOff.mergeStoredPayloads(
+                claimed, storedIds, storedPayloads, 2, batch);
+
+        assertEquals(5, batch.size());
+        assertArrayEquals(new long[]{1, 2, 3, 4, 5}, Arrays.copyOf(batch.getIds(), batch.size()));
+        assertArrayEquals(bytes("a"), batch.getPayload(0));
+        assertArrayEquals(bytes("stored-2"), batch.getPayload(1));
+        assertArrayEquals(bytes("stored-3"), batch.getPayload(2));
+        assertArrayEquals(new byte[0], batch.getPayload(3), "an empty inline payload stays empty");
+        assertArrayEquals(bytes("bc"), batch.getPayload(4));
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals(11 + i, batch.getCreatedAtEpochMicros(i));
+        }
+    }
+
+    @Test
+    void mergeStoredPayloads_copiesClaimedWithoutStoredPayloads() {
+        EventBatch claimed = new EventBatch();
+        claimed.add(7, bytes("x"), 1);
+        claimed.add(8, bytes("yz"), 2);
+
+        EventBatch batch = new EventBatch();
+        PgQueueBuffer_10_ClaimCheckSelectForUpdateSkipLockedWhereIdSyncCommitOff.mergeStoredPayloads(
+                claimed, new long[0], new byte[0][], 0, batch);
+
+        assertEquals(2, batch.size());
+        assertArrayEquals(bytes("x"), batch.getPayload(0));
+        assertArrayEquals(bytes("yz"), batch.getPayload(1));
+    }
+
+    @Test
+    void mergeStoredPayloads_rejectsUnclaimedStoredPayload() {
+        EventBatch claimed = new EventBatch();
+        claimed.add(1, new byte[0], 1);
+        long[] storedIds = {1, 2};
+        byte[][] storedPayloads = {bytes("stored-1"), bytes("stored-2")};
+
+        assertThrows(IllegalStateException.class, () ->
+                PgQueueBuffer_10_ClaimCheckSelectForUpdateSkipLockedWhereIdSyncCommitOff.mergeStoredPayloads(
+                        claimed, storedIds, storedPayloads, 2, new EventBatch()));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,108 @@
+package ai.toloka.engineering.pg_queue_playground.misc;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void smallValuesHaveTheirOwnBuckets() {
+        for (int value = 0; value < 128; value++) {
+            assertEquals(value, LatencyHistogram.indexOf(value));
+            assertEquals(value, LatencyHistogram.highestValueOf(value));
+        }
+    }
+
+    @Test
+    void bucketBoundaries() {
+        assertEquals(128, LatencyHistogram.indexOf(128));
+        assertEquals(128, LatencyHistogram.indexOf(129));
+        assertEquals(129, LatencyHistogram.indexOf(130));
+        assertEquals(129, LatencyHistogram.highestValueOf(128));
+
+        for (int shift = 7; shift < 63; shift++) {
+            long powerOfTwo = 1L << shift;
+            assertEquals(powerOfTwo - 1, LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(powerOfTwo) - 1));
+            assertBucketHolds(powerOfTwo - 1);
+            assertBucketHolds(powerOfTwo);
+            assertBucketHolds(powerOfTwo + 1);
+        }
+        var random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            assertBucketHolds((random.nextLong() >>> 1) >>> random.nextInt(63));
+        }
+    }
+
+    @Test
+    void topBucketEndsAtMaxValue() {
+        int topIndex = LatencyHistogram.indexOf(Long.MAX_VALUE);
+        assertEquals((64 - 6) * 64 - 1, topIndex);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueOf(topIndex));
+        assertEquals(topIndex, LatencyHistogram.indexOf(Long.MAX_VALUE - (1L << 56) + 1));
+        assertBucketHolds(Long.MAX_VALUE);
+
+        var histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        var snapshot = new LatencyHistogram.Snapshot();
+        histogram.drainTo(snapshot);
+        assertEquals(Long.MAX_VALUE, snapshot.getPercentileNanos(99));
+        assertEquals(Long.MAX_VALUE, snapshot.getMaxNanos());
+    }
+
+    @Test
+    void percentiles() {
+        var histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1_000; i++) {
+            histogram.record(i * 1_000L);
+        }
+        histogram.record(-5); // counted as 0
+        var snapshot = new LatencyHistogram.Snapshot();
+        histogram.drainTo(snapshot);
+
+        assertEquals(1_001, snapshot.getCount());
+        assertEquals(1_000_000, snapshot.getMaxNanos());
+        assertEquals(0, snapshot.getPercentileNanos(0));
+        assertWithinBucketError(500_000, snapshot.getPercentileNanos(50));
+        assertWithinBucketError(991_000, snapshot.getPercentileNanos(99));
+        assertEquals(1_000_000, snapshot.getPercentileNanos(100), "not more than the max value");
+    }
+
+    @Test
+    void drainMovesCountsAndSnapshotsMerge() {
+        var histogram = new LatencyHistogram();
+        histogram.record(10);
+        var first = new LatencyHistogram.Snapshot();
+        histogram.drainTo(first);
+        histogram.record(1_000);
+        var second = new LatencyHistogram.Snapshot();
+        histogram.drainTo(second);
+
+        assertEquals(1, first.getCount());
+        assertEquals(1, second.getCount());
+        assertEquals(1_000, second.getMaxNanos());
+
+        first.merge(second);
+        assertEquals(2, first.getCount());
+        assertEquals(1_000, first.getMaxNanos());
+        assertEquals(10, first.getPercentileNanos(50));
+        assertEquals(0, new LatencyHistogram.Snapshot().getPercentileNanos(99));
+    }
+
+    private static void assertBucketHolds(long value) {
+        int index = LatencyHistogram.indexOf(value);
+        long highest = LatencyHistogram.highestValueOf(index);
+        assertTrue(highest >= value, value + " is above its bucket ending at " + highest);
+        assertTrue(index == 0 || LatencyHistogram.highestValueOf(index - 1) < value,
+                value + " belongs to a lower bucket");
+        assertTrue(highest - value <= value / 64, "relative error of " + value + " is over 1/64");
+    }
+
+    private static void assertWithinBucketError(long expected, long actual) {
+        assertTrue(actual >= expected && actual - expected <= expected / 64,
+                "expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,91 @@
+package ai.toloka.engineering.pg_queue_playground.misc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PayloadCodecTest {
+
+    @Test
+    void emptyPayload() {
+        var codec = new PayloadCodec(0);
+
+        byte[] encoded = codec.encode(new byte[0]);
+
+        assertArrayEquals(new byte[]{0}, encoded);
+        assertEquals(0, codec.decode(ByteBuffer.wrap(encoded)).remaining());
+    }
+
+    @Test
+    void payloadBelowThresholdIsStoredRaw() {
+        var codec = new PayloadCodec(1_024);
+        byte[] payload = "a".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+        byte[] encoded = codec.encode(payload);
+
+        assertEquals(payload.length + 1, encoded.length);
+        assertEquals(0, encoded[0]);
+        assertArrayEquals(payload, toArray(codec.decode(ByteBuffer.wrap(encoded))));
+    }
+
+    @Test
+    void incompressiblePayloadIsStoredRaw() {
+        var codec = new PayloadCodec(0);
+        byte[] payload = new byte[4_096];
+        new Random(42).nextBytes(payload);
+
+        byte[] encoded = codec.encode(payload);
+
+        assertEquals(payload.length + 1, encoded.length);
+        assertEquals(0, encoded[0]);
+        assertArrayEquals(payload, toArray(codec.decode(ByteBuffer.wrap(encoded))));
+    }
+
+    @Test
+    void compressiblePayloadIsDeflated() {
+        var codec = new PayloadCodec(0);
+        // larger than the initial decode buffer, so decode grows it
+        byte[] payload = "{\"key\":\"value\"},".repeat(1_000).getBytes(StandardCharsets.UTF_8);
+
+        byte[] encoded = codec.encode(payload);
+
+        assertEquals(1, encoded[0]);
+        assertTrue(encoded.length < payload.length / 10, "compressed to " + encoded.length + " bytes");
+        assertArrayEquals(payload, toArray(codec.decode(ByteBuffer.wrap(encoded))));
+    }
+
+    @Test
+    void decodesPayloadInTheMiddleOfBuffer() {
+        var codec = new PayloadCodec(0);
+        byte[] payload = "b".repeat(500).getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = codec.encode(payload);
+        byte[] framed = new byte[encoded.length + 6];
+        System.arraycopy(encoded, 0, framed, 3, encoded.length);
+
+        ByteBuffer decoded = codec.decode(ByteBuffer.wrap(framed, 3, encoded.length).slice());
+
+        assertArrayEquals(payload, toArray(decoded));
+    }
+
+    @Test
+    void rejectsUnknownCodec() {
+        var codec = new PayloadCodec(0);
+
+        var e = assertThrows(IllegalArgumentException.class, () -> codec.decode(ByteBuffer.wrap(new byte[]{7, 1, 2})));
+
+        assertEquals("Unknown payload codec 7", e.getMessage());
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.duplicate().get(result);
+        return result;
+    }
+}
@@ -0,0 +1,132 @@
+package ai.toloka.engineering.pg_queue_playground.misc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import ai.toloka.engineering.pg_queue_playground.PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StressTestComparisonTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void parsesWhatIsWritten() {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("type", "config");
+        fields.put("runName", "run \"quoted\", {braced}: back\\slash\ttab\nline\u0001");
+        fields.put("count", 42);
+        fields.put("ratio", 0.5);
+        fields.put("enabled", true);
+        fields.put("missing", null);
+
+        Map<String, String> parsed = StressTestComparison.parseLine(StressTestResultWriter.toJson(fields));
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        fields.forEach((name, value) -> expected.put(name, String.valueOf(value)));
+        assertEquals(expected, parsed);
+    }
+
+    @Test
+    void comparesRunsWrittenByResultWriter() throws IOException {
+        Path baseline = writeRun("baseline", 1_000, 5.0);
+        Path same = writeRun("same", 1_000, 5.0);
+        Path slower = writeRun("slower", 500, 5.0);
+
+        assertEquals(0, compare("--baseline", baseline.toString(), same.toString()).status);
+
+        Result regressed = compare("--baseline", baseline.toString(), slower.toString());
+        assertEquals(1, regressed.status);
+        assertTrue(regressed.out.contains("roundtrip write/s: 1000.00 -> 500.00 (-50.0%)"), regressed.out);
+        assertTrue(regressed.out.contains("roundtrip read/s"), regressed.out);
+        assertFalse(regressed.out.contains("poll p99 ms:"), regressed.out);
+    }
+
+    @Test
+    void matchesEscapedRunNamesAndToleratesReorderedAndMissingFields() throws IOException {
+        String runName = "run \"a\", b\\c\nd";
+        Path baseline = dir.resolve("baseline.jsonl");
+        Files.write(baseline, List.of(
+                StressTestResultWriter.toJson(fields("type", "config", "runName", runName)),
+                StressTestResultWriter.toJson(fields("type", "sample", "writeThroughput", 100, "readThroughput", 100,
+                        "size", 0)),
+                StressTestResultWriter.toJson(fields("type", "summary", "pollP99Ms", 2.0, "eventAgeP99Ms", 10.0,
+                        "eventAgeMaxMs", 20.0))));
+        Path run = dir.resolve("run.jsonl");
+        Files.write(run, List.of(
+                StressTestResultWriter.toJson(fields("runName", runName, "type", "config")),
+                // a sample without readThroughput and a summary without the event ages
+                StressTestResultWriter.toJson(fields("size", 0, "writeThroughput", 100, "type", "sample")),
+                StressTestResultWriter.toJson(fields("pollP99Ms", 4.0, "type", "summary")),
+                ""));
+
+        Result result = compare("--threshold", "20", "--baseline", baseline.toString(), run.toString());
+
+        assertEquals(1, result.status);
+        assertTrue(result.out.contains(runName + " poll p99 ms: 2.00 -> 4.00 (+100.0%)"), result.out);
+        assertFalse(result.out.contains("write/s:"), result.out);
+        assertFalse(result.out.contains("age p99 ms:"), result.out);
+    }
+
+    @Test
+    void rejectsWrongUsage() throws IOException {
+        Path run = writeRun("run", 1_000, 5.0);
+
+        assertEquals(2, compare("--threshold", "5").status);
+        assertEquals(2, compare(run.toString(), "--baseline").status);
+        assertEquals(2, compare(run.toString(), "--threshold").status);
+        assertEquals(2, compare("--threshold", "ten", run.toString()).status);
+        assertEquals(2, compare("--threshold", "NaN", run.toString()).status);
+        assertEquals(0, compare("--threshold", "5", run.toString()).status);
+    }
+
+    private Path writeRun(String subdir, double throughput, double pollP99Ms) throws IOException {
+        StressTestConfig config = StressTestConfig.builder()
+                .setPgQueueBuffer(new PgQueueBuffer_4_SelectForUpdateSkipLockedWhereIdSyncCommitOff(10))
+                .setRunName("roundtrip")
+                .setResultsDir(dir.resolve(subdir).toString())
+                .build();
+        try (StressTestResultWriter writer = StressTestResultWriter.open(config)) {
+            for (int i = 0; i < 3; i++) {
+                writer.writeSample(fields("writeThroughput", throughput, "readThroughput", throughput, "size", i));
+            }
+            writer.writeSummary(fields("pollP99Ms", pollP99Ms, "eventAgeP99Ms", 10.0, "eventAgeMaxMs", 20.0));
+        }
+        try (Stream<Path> files = Files.list(dir.resolve(subdir))) {
+            return files.findFirst().orElseThrow();
+        }
+    }
+
+    private static Map<String, Object> fields(Object... namesAndValues) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            fields.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return fields;
+    }
+
+    private static Result compare(String... args) throws IOException {
+        var out = new ByteArrayOutputStream();
+        var err = new ByteArrayOutputStream();
+        int status = StressTestComparison.compare(args, new PrintStream(out, true, StandardCharsets.UTF_8),
+                new PrintStream(err, true, StandardCharsets.UTF_8));
+        return new Result(status, out.toString(StandardCharsets.UTF_8));
+    }
+
+    private record Result(int status, String out) {
+    }
+}